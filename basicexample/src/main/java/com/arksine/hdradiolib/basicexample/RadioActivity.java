@@ -248,12 +248,22 @@ public class RadioActivity extends AppCompatActivity {
                         String.format(Locale.US, "%1$d AM", mCurrentFrequency);
                 final boolean bandStatus = (mCurrentBand == RadioBand.FM);
 
+                // Show the callsign last received on this frequency until HD sends it again
+                StationDatabase database = mHdRadio.getStationDatabase();
+                StationDatabase.Record record = (database != null) ?
+                        database.lookup(mCurrentBand, mCurrentFrequency) : null;
+                final String knownCallsign = (record != null) ? record.getCallsign() : "";
+
                 RadioActivity.this.mUiHandler.post(new Runnable() {
                     @Override
                     public void run() {
                         mBandButton.setChecked(bandStatus);
                         mTextSwapAnimator.setTextItem(RadioCommand.TUNE, tuneStr);
                         mTextSwapAnimator.resetAnimator();
+                        if (!knownCallsign.isEmpty()) {
+                            mTextSwapAnimator.setTextItem(RadioCommand.HD_CALLSIGN,
+                                    knownCallsign);
+                        }
                         mRadioStatusText.setText("");
                         mRadioFreqText.setText(tuneStr);
                     }
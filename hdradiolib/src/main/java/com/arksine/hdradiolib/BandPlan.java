@@ -0,0 +1,110 @@
+package com.arksine.hdradiolib;
+
+import android.support.annotation.NonNull;
+
+import com.arksine.hdradiolib.enums.RadioBand;
+
+/**
+ * Describes the frequency limits and channel spacing of each band for a region, so tune targets
+ * can be computed on the host rather than stepped one channel at a time by the radio.
+ *
+ * Frequencies use the radio's units: FM in 100 kHz (879 = 87.9 MHz), AM in kHz.
+ */
+
+public class BandPlan {
+
+    // 200 kHz FM / 10 kHz AM spacing
+    public static final BandPlan NORTH_AMERICA = new BandPlan("North America",
+            879, 1079, 2, 530, 1710, 10);
+
+    // 100 kHz FM / 9 kHz AM spacing
+    public static final BandPlan EUROPE = new BandPlan("Europe",
+            875, 1080, 1, 531, 1602, 9);
+
+    private final String mName;
+    private final int mFmMin;
+    private final int mFmMax;
+    private final int mFmStep;
+    private final int mAmMin;
+    private final int mAmMax;
+    private final int mAmStep;
+
+    public BandPlan(String name, int fmMin, int fmMax, int fmStep,
+                    int amMin, int amMax, int amStep) {
+        if (fmStep <= 0 || amStep <= 0 || fmMax < fmMin || amMax < amMin) {
+            throw new IllegalArgumentException("Invalid band plan limits");
+        }
+
+        this.mName = name;
+        this.mFmMin = fmMin;
+        this.mFmMax = fmMax;
+        this.mFmStep = fmStep;
+        this.mAmMin = amMin;
+        this.mAmMax = amMax;
+        this.mAmStep = amStep;
+    }
+
+    public String getName() {
+        return this.mName;
+    }
+
+    public int getMinFrequency(@NonNull RadioBand band) {
+        return (band == RadioBand.FM) ? this.mFmMin : this.mAmMin;
+    }
+
+    public int getMaxFrequency(@NonNull RadioBand band) {
+        return (band == RadioBand.FM) ? this.mFmMax : this.mAmMax;
+    }
+
+    public int getStep(@NonNull RadioBand band) {
+        return (band == RadioBand.FM) ? this.mFmStep : this.mAmStep;
+    }
+
+    /**
+     * @return  Number of channels in the band
+     */
+    public int getChannelCount(@NonNull RadioBand band) {
+        return (this.getMaxFrequency(band) - this.getMinFrequency(band)) / this.getStep(band) + 1;
+    }
+
+    /**
+     * @return  Frequency of the channel at the given index, 0 being the lowest channel
+     */
+    public int getFrequency(@NonNull RadioBand band, int channel) {
+        return this.getMinFrequency(band) + channel * this.getStep(band);
+    }
+
+    /**
+     * @return  Index of the channel nearest to the frequency, clamped to the band limits
+     */
+    public int getChannel(@NonNull RadioBand band, int frequency) {
+        int count = this.getChannelCount(band);
+        int step = this.getStep(band);
+        int channel = (frequency - this.getMinFrequency(band) + step / 2) / step;
+        return Math.max(0, Math.min(channel, count - 1));
+    }
+
+    public boolean isValid(@NonNull RadioBand band, int frequency) {
+        return frequency >= this.getMinFrequency(band) && frequency <= this.getMaxFrequency(band)
+                && (frequency - this.getMinFrequency(band)) % this.getStep(band) == 0;
+    }
+
+    /**
+     * Computes the frequency a number of channels away from the given frequency.  Off grid
+     * frequencies are snapped to the nearest channel first, and the result wraps at the band
+     * limits the way the radio's own tune up/down does.
+     *
+     * @param band          band to step in
+     * @param frequency     starting frequency
+     * @param steps         number of channels to move, negative to move down
+     * @return              the target frequency
+     */
+    public int step(@NonNull RadioBand band, int frequency, int steps) {
+        int count = this.getChannelCount(band);
+        int channel = (this.getChannel(band, frequency) + steps) % count;
+        if (channel < 0) {
+            channel += count;
+        }
+        return this.getFrequency(band, channel);
+    }
+}
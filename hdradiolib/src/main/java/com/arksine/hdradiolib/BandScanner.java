@@ -0,0 +1,366 @@
+package com.arksine.hdradiolib;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.arksine.hdradiolib.enums.RadioBand;
+import com.arksine.hdradiolib.enums.RadioCommand;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Sweeps a band by tuning each channel of the band plan directly, sampling the signal strength
+ * and HD status of each.  Channels below the signal threshold are skipped as soon as the signal
+ * strength reply arrives, and channels above it are kept only until HD is reported or the dwell
+ * time runs out, so the sweep moves as fast as the radio replies.  When the scan ends the
+ * original station is tuned again.
+ *
+ * Listener callbacks are executed on the EventHandler's thread.  The package private methods,
+ * except onReply and onTuneReceived, must be called from the control handler's looper.
+ */
+
+public class BandScanner {
+
+    private static final long REPLY_TIMEOUT = 500;
+    private static final long DEFAULT_DWELL_TIME = 1500;
+    private static final int DEFAULT_THRESHOLD = 20;
+
+    /**
+     * Receives the results of a scan
+     */
+    public interface ScanListener {
+        void onScanProgress(RadioBand band, int frequency, int percent);
+        void onStationFound(ScanResult result);
+        void onScanComplete(List<ScanResult> stations);
+        void onScanCancelled(List<ScanResult> stations);
+    }
+
+    /**
+     * A station found during a scan
+     */
+    public static class ScanResult {
+        private final RadioBand mBand;
+        private final int mFrequency;
+        private final int mSignalStrength;
+        private final boolean mHdActive;
+
+        ScanResult(RadioBand band, int frequency, int signalStrength, boolean hdActive) {
+            this.mBand = band;
+            this.mFrequency = frequency;
+            this.mSignalStrength = signalStrength;
+            this.mHdActive = hdActive;
+        }
+
+        public RadioBand getBand() {
+            return this.mBand;
+        }
+
+        public int getFrequency() {
+            return this.mFrequency;
+        }
+
+        public int getSignalStrength() {
+            return this.mSignalStrength;
+        }
+
+        public boolean isHdActive() {
+            return this.mHdActive;
+        }
+
+        public TuneInfo toTuneInfo() {
+            return new TuneInfo(this.mBand, this.mFrequency, 0);
+        }
+    }
+
+    // Strongest stations first, HD stations ahead of analog ones of equal strength
+    private static final Comparator<ScanResult> RANK_ORDER = new Comparator<ScanResult>() {
+        @Override
+        public int compare(ScanResult lhs, ScanResult rhs) {
+            if (lhs.mSignalStrength != rhs.mSignalStrength) {
+                return (lhs.mSignalStrength > rhs.mSignalStrength) ? -1 : 1;
+            }
+            if (lhs.mHdActive != rhs.mHdActive) {
+                return lhs.mHdActive ? -1 : 1;
+            }
+            return (lhs.mFrequency < rhs.mFrequency) ? -1 :
+                    ((lhs.mFrequency == rhs.mFrequency) ? 0 : 1);
+        }
+    };
+
+    /**
+     * Implemented by the HDRadio class to write requests to the radio
+     */
+    interface ScanRequester {
+        void tune(TuneInfo tuneInfo);
+        void requestSignalStrength();
+        void restoreTune(TuneInfo tuneInfo);
+        void recordStation(ScanResult result);
+    }
+
+    private final Handler mHandler;
+    private final EventHandler mEventHandler;
+    private final RadioValues mRadioValues;
+    private final ScanRequester mRequester;
+
+    private volatile boolean mScanning = false;
+    private volatile long mDwellTime = DEFAULT_DWELL_TIME;
+    private volatile int mThreshold = DEFAULT_THRESHOLD;
+
+    private BandPlan mBandPlan;
+    private RadioBand mBand;
+    private ScanListener mListener;
+    private TuneInfo mOriginalTune;
+    private ArrayList<ScanResult> mResults = new ArrayList<>();
+    private int mChannel;
+    private int mChannelCount;
+    private int mFrequency;
+    private boolean mTuned;
+    private int mSignal;
+    private boolean mSignalReceived;
+    private long mScanStartTime;
+
+    private final Runnable mDwellRunnable = new Runnable() {
+        @Override
+        public void run() {
+            BandScanner.this.finishChannel();
+        }
+    };
+
+    BandScanner(@NonNull Handler handler, @NonNull EventHandler eventHandler,
+                @NonNull RadioValues values, @NonNull ScanRequester requester) {
+        this.mHandler = handler;
+        this.mEventHandler = eventHandler;
+        this.mRadioValues = values;
+        this.mRequester = requester;
+    }
+
+    /**
+     * Sets the longest time spent on a channel with a usable signal while waiting for HD.
+     */
+    public void setDwellTime(long dwellMs) {
+        this.mDwellTime = dwellMs;
+    }
+
+    /**
+     * Sets the minimum signal strength for a channel to be reported as a station.
+     */
+    public void setThreshold(int signalStrength) {
+        this.mThreshold = signalStrength;
+    }
+
+    public boolean isScanning() {
+        return this.mScanning;
+    }
+
+    void start(@NonNull BandPlan plan, @NonNull RadioBand band, @NonNull ScanListener listener) {
+        if (this.mScanning) {
+            this.stop(false, false);
+        }
+
+        this.mScanning = true;
+        this.mBandPlan = plan;
+        this.mBand = band;
+        this.mListener = listener;
+        this.mOriginalTune = this.mRadioValues.mTune.get();
+        this.mResults = new ArrayList<>();
+        this.mChannel = 0;
+        this.mChannelCount = plan.getChannelCount(band);
+        this.mScanStartTime = SystemClock.elapsedRealtime();
+
+        this.tuneChannel();
+    }
+
+    /**
+     * Cancels a scan in progress.
+     *
+     * @param restoreTune   true to tune back to the original station, false if the caller is
+     *                      about to tune elsewhere
+     * @return              the station tuned before the scan, or null if no scan was running
+     */
+    TuneInfo cancel(boolean restoreTune) {
+        if (!this.mScanning) {
+            return null;
+        }
+
+        TuneInfo originalTune = this.mOriginalTune;
+        this.stop(false, restoreTune);
+        return originalTune;
+    }
+
+    /**
+     * Called from the data handler after a tune reply has been stored.
+     *
+     * @return  true if the scanner is running and has consumed the reply
+     */
+    boolean onTuneReceived() {
+        if (!this.mScanning) {
+            return false;
+        }
+
+        this.mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                BandScanner.this.evaluate(RadioCommand.TUNE);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Called from the data handler after a reply has been parsed and stored
+     */
+    void onReply(final RadioCommand command) {
+        if (!this.mScanning) {
+            return;
+        }
+
+        switch (command) {
+            case SIGNAL_STRENGTH:
+            case HD_ACTIVE:
+                this.mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        BandScanner.this.evaluate(command);
+                    }
+                });
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void tuneChannel() {
+        this.mFrequency = this.mBandPlan.getFrequency(this.mBand, this.mChannel);
+        this.mTuned = false;
+        this.mSignalReceived = false;
+        this.mSignal = 0;
+
+        this.mRequester.tune(new TuneInfo(this.mBand, this.mFrequency, 0));
+
+        // Covers a lost tune or signal reply, the channel is skipped if nothing arrives
+        this.mHandler.removeCallbacks(this.mDwellRunnable);
+        this.mHandler.postDelayed(this.mDwellRunnable, REPLY_TIMEOUT);
+    }
+
+    private void evaluate(RadioCommand command) {
+        if (!this.mScanning) {
+            return;
+        }
+
+        TuneInfo current = this.mRadioValues.mTune.get();
+        if (current.getBand() != this.mBand || current.getFrequency() != this.mFrequency) {
+            return;
+        }
+
+        switch (command) {
+            case TUNE:
+                if (!this.mTuned) {
+                    this.mTuned = true;
+                    this.mRequester.requestSignalStrength();
+                }
+                break;
+            case SIGNAL_STRENGTH:
+                if (!this.mTuned) {
+                    break;
+                }
+                this.mSignalReceived = true;
+                this.mSignal = this.mRadioValues.mSignalStrength.get();
+                if (this.mSignal < this.mThreshold) {
+                    // Nothing here, move on without waiting for HD
+                    this.finishChannel();
+                } else {
+                    // Usable signal, give HD a chance to lock
+                    this.mHandler.removeCallbacks(this.mDwellRunnable);
+                    this.mHandler.postDelayed(this.mDwellRunnable, this.mDwellTime);
+                }
+                break;
+            case HD_ACTIVE:
+                if (this.mTuned && this.mRadioValues.mHdActive.get()) {
+                    if (!this.mSignalReceived) {
+                        this.mSignalReceived = true;
+                        this.mSignal = this.mRadioValues.mSignalStrength.get();
+                    }
+                    this.finishChannel();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void finishChannel() {
+        if (!this.mScanning) {
+            return;
+        }
+
+        this.mHandler.removeCallbacks(this.mDwellRunnable);
+
+        boolean hdActive = this.mTuned && this.mRadioValues.mHdActive.get();
+        if (this.mSignalReceived && (hdActive || this.mSignal >= this.mThreshold)) {
+            final ScanResult result = new ScanResult(this.mBand, this.mFrequency, this.mSignal,
+                    hdActive);
+            this.mResults.add(result);
+            this.mRequester.recordStation(result);
+            final ScanListener listener = this.mListener;
+            this.mEventHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onStationFound(result);
+                }
+            });
+        }
+
+        this.mChannel++;
+        final RadioBand band = this.mBand;
+        final int frequency = this.mFrequency;
+        final int percent = this.mChannel * 100 / this.mChannelCount;
+        final ScanListener listener = this.mListener;
+        this.mEventHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onScanProgress(band, frequency, percent);
+            }
+        });
+
+        if (this.mChannel >= this.mChannelCount) {
+            this.stop(true, true);
+        } else {
+            this.tuneChannel();
+        }
+    }
+
+    private void stop(final boolean complete, boolean restoreTune) {
+        this.mScanning = false;
+        this.mHandler.removeCallbacks(this.mDwellRunnable);
+
+        Timber.d("Scan of %s %s after %d ms, %d stations found", this.mBand,
+                complete ? "complete" : "cancelled",
+                SystemClock.elapsedRealtime() - this.mScanStartTime, this.mResults.size());
+
+        final ArrayList<ScanResult> stations = this.mResults;
+        Collections.sort(stations, RANK_ORDER);
+
+        final ScanListener listener = this.mListener;
+        this.mListener = null;
+        if (restoreTune) {
+            this.mRequester.restoreTune(this.mOriginalTune);
+        }
+
+        this.mEventHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (complete) {
+                    listener.onScanComplete(stations);
+                } else {
+                    listener.onScanCancelled(stations);
+                }
+            }
+        });
+    }
+}
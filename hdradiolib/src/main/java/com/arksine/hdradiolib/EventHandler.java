@@ -6,144 +6,214 @@ import android.support.annotation.NonNull;
 
 import com.arksine.hdradiolib.enums.RadioError;
 
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import timber.log.Timber;
+
 /**
  * Handles Events received from the radio.  Pertinent data is stored to the RadioValues members,
  * then the appopriate callback is posted to a handler/message queue.
+ *
+ * Listeners registered for direct delivery are instead invoked synchronously on the thread that
+ * raised the event, usually the parsing thread.  Their execution time is checked against a budget
+ * so slow direct listeners are reported.
  */
 
 class EventHandler extends  Handler {
 
+    private static final long DEFAULT_DIRECT_BUDGET = 200;   // microseconds
+
     private HDRadioEvents mCallbacks;
+    private final RadioMetrics mMetrics;
+    private final CopyOnWriteArrayList<HDRadioEvents> mListeners = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<HDRadioEvents> mDirectListeners = new CopyOnWriteArrayList<>();
+    private volatile long mDirectBudgetNanos = DEFAULT_DIRECT_BUDGET * 1000;
+
+    /**
+     * A single event.  It is delivered synchronously to direct listeners, then posted to this
+     * handler's looper and delivered to the application callbacks and remaining listeners.
+     */
+    private abstract class Dispatch implements Runnable {
+        abstract void deliver(HDRadioEvents callbacks);
+
+        @Override
+        public void run() {
+            this.deliver(EventHandler.this.mCallbacks);
+            for (HDRadioEvents listener : EventHandler.this.mListeners) {
+                this.deliver(listener);
+            }
+        }
+    }
 
-    EventHandler(@NonNull HDRadioEvents callbacks, @NonNull Looper looper) {
+    EventHandler(@NonNull HDRadioEvents callbacks, @NonNull Looper looper,
+                 @NonNull RadioMetrics metrics) {
         super(looper);
         this.mCallbacks = callbacks;
+        this.mMetrics = metrics;
+    }
+
+    void registerListener(@NonNull HDRadioEvents listener, boolean direct) {
+        this.unregisterListener(listener);
+        if (direct) {
+            this.mDirectListeners.addIfAbsent(listener);
+        } else {
+            this.mListeners.addIfAbsent(listener);
+        }
+    }
+
+    void unregisterListener(@NonNull HDRadioEvents listener) {
+        this.mListeners.remove(listener);
+        this.mDirectListeners.remove(listener);
+    }
+
+    void setDirectBudget(long budgetMicros) {
+        this.mDirectBudgetNanos = budgetMicros * 1000;
+    }
+
+    private void dispatch(Dispatch event) {
+        for (HDRadioEvents listener : this.mDirectListeners) {
+            long startTime = System.nanoTime();
+            try {
+                event.deliver(listener);
+            } catch (RuntimeException e) {
+                Timber.e(e, "Direct listener threw an exception");
+            }
+
+            long elapsed = System.nanoTime() - startTime;
+            if (elapsed > this.mDirectBudgetNanos) {
+                this.mMetrics.recordDirectCallbackOverrun();
+                Timber.w("Direct listener %s exceeded its budget: %d us",
+                        listener.getClass().getName(), elapsed / 1000);
+            }
+        }
+
+        this.post(event);
     }
 
     void handleOpenedEvent(final boolean success, final RadioController controller) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onOpened(success, controller);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onOpened(success, controller);
             }
         });
     }
 
     void handleClosedEvent() {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onClosed();
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onClosed();
             }
         });
     }
 
     void handleDeviceErrorEvent(final RadioError error) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onDeviceError(error);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onDeviceError(error);
             }
         });
     }
 
     // Hard power on
     void handlePowerOnEvent() {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioPowerOn();
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioPowerOn();
             }
         });
     }
 
     // Hard power off
     void handlePowerOffEvent() {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioPowerOff();
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioPowerOff();
             }
         });
     }
 
     void handleMuteEvent(final boolean status) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioMute(status);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioMute(status);
             }
         });
     }
 
     void handleSignalStrengthEvent(final int signal) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioSignalStrength(signal);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioSignalStrength(signal);
             }
         });
     }
 
     void handleTuneEvent(final TuneInfo tuneInfo) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioTune(tuneInfo);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioTune(tuneInfo);
             }
         });
     }
 
     void handleSeekEvent(final TuneInfo seekInfo) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioSeek(seekInfo);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioSeek(seekInfo);
             }
         });
     }
 
     void handleHdActiveEvent(final boolean hdActive) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioHdActive(hdActive);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioHdActive(hdActive);
             }
         });
     }
 
     void handleHdStreamLockEvent(final boolean hdStreamLock) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioHdStreamLock(hdStreamLock);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioHdStreamLock(hdStreamLock);
             }
         });
     }
 
     void handleHdSignalStrengthEvent(final int hdSignal) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioHdSignalStrength(hdSignal);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioHdSignalStrength(hdSignal);
             }
         });
     }
 
     void handleHdSubchannelEvent(final int subchannel) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioHdSubchannel(subchannel);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioHdSubchannel(subchannel);
             }
         });
     }
 
     void handleHdSubchannelCountEvent(final int count) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioHdSubchannelCount(count);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioHdSubchannelCount(count);
             }
         });
     }
@@ -154,109 +224,109 @@ class EventHandler extends  Handler {
 
 
     void handleHdTitleEvent(final HDSongInfo hdTitle) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioHdTitle(hdTitle);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioHdTitle(hdTitle);
             }
         });
     }
 
     void handleHdArtistEvent(final HDSongInfo hdArtist) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioHdArtist(hdArtist);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioHdArtist(hdArtist);
             }
         });
     }
 
     void handleHdCallsignEvent(final String callsign) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioHdCallsign(callsign);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioHdCallsign(callsign);
             }
         });
     }
 
     void handleHdStationNameEvent(final String stationName) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioHdStationName(stationName);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioHdStationName(stationName);
             }
         });
     }
 
     void handleRdsEnabledEvent(final boolean rdsEnabled) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioRdsEnabled(rdsEnabled);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioRdsEnabled(rdsEnabled);
             }
         });
     }
 
     void handleRdsGenreEvent(final String rdsGenre) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioRdsGenre(rdsGenre);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioRdsGenre(rdsGenre);
             }
         });
     }
 
     void handleRdsProgramServiceEvent(final String rdsProgram) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioRdsProgramService(rdsProgram);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioRdsProgramService(rdsProgram);
             }
         });
     }
 
     void handleRdsRadioTextEvent(final String rdsRadioText) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioRdsRadioText(rdsRadioText);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioRdsRadioText(rdsRadioText);
             }
         });
     }
 
     void handleVolumeEvent(final int volume) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioVolume(volume);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioVolume(volume);
             }
         });
     }
 
     void handleBassEvent(final int bass) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioBass(bass);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioBass(bass);
             }
         });
     }
 
     void handleTrebleEvent(final int treble) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioTreble(treble);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioTreble(treble);
             }
         });
     }
 
     void handleCompressionEvent(final int compression) {
-        this.post(new Runnable() {
+        this.dispatch(new Dispatch() {
             @Override
-            public void run() {
-                EventHandler.this.mCallbacks.onRadioCompression(compression);
+            void deliver(HDRadioEvents callbacks) {
+                callbacks.onRadioCompression(compression);
             }
         });
     }
@@ -0,0 +1,177 @@
+package com.arksine.hdradiolib;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import timber.log.Timber;
+
+/**
+ * Always on record of the most recent protocol events, kept in a fixed size ring of compact
+ * binary entries.  Recording takes no locks and allocates nothing, so every frame sent and
+ * received is recorded.  The ring can be written to a file and read back with
+ * FlightRecorderDecoder.
+ *
+ * Each entry is two longs:
+ *  0   timestamp, microseconds of System.nanoTime()
+ *  1   bits 0 - 15     length of the frame's data
+ *      bits 16 - 31    command code as sent on the wire
+ *      bits 32 - 39    operation code
+ *      bits 40 - 41    direction
+ *      bits 42 - 47    event
+ *      bits 48 - 63    low bits of the entry's sequence number
+ *
+ * Dump file format, big endian:
+ *  header  int magic, short version, short reserved, long wall clock time of the dump (ms),
+ *          long timestamp of the dump (us), int entry count
+ *  entries oldest first, two longs each as above
+ */
+
+public class FlightRecorder {
+
+    static final int FILE_MAGIC = 0x48444652;     // "HDFR"
+    static final int FILE_VERSION = 1;
+
+    public static final int DIRECTION_RX = 0;
+    public static final int DIRECTION_TX = 1;
+
+    public static final int EVENT_FRAME = 0;
+    public static final int EVENT_CHECKSUM_ERROR = 1;
+    public static final int EVENT_RESYNC = 2;           // header received mid packet
+    public static final int EVENT_ZERO_LENGTH = 3;
+    public static final int EVENT_NOT_REPLY = 4;
+    public static final int EVENT_UNKNOWN_COMMAND = 5;
+    public static final int EVENT_SHORT_PACKET = 6;
+    public static final int EVENT_STRAY_BYTES = 7;      // bytes received outside a packet
+    public static final int EVENT_PARSE_ERROR = 8;      // frame with a value that can't be parsed
+
+    private static final int DEFAULT_CAPACITY = 1024;     // entries, must be a power of two
+
+    private final AtomicLongArray mEntries;
+    private final AtomicLong mSequence = new AtomicLong(0);
+    private final int mMask;
+
+    FlightRecorder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    FlightRecorder(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2));
+        this.mEntries = new AtomicLongArray(size * 2);
+        this.mMask = size - 1;
+    }
+
+    static long pack(int direction, int event, int command, int operation, int length,
+                     long sequence) {
+        return (length & 0xFFFFL) | ((command & 0xFFFFL) << 16) | ((operation & 0xFFL) << 32) |
+                ((direction & 0x3L) << 40) | ((event & 0x3FL) << 42) | ((sequence & 0xFFFFL) << 48);
+    }
+
+    /**
+     * Records an event.  May be called from any thread.
+     */
+    void record(int direction, int event, int command, int operation, int length) {
+        long sequence = this.mSequence.getAndIncrement();
+        int slot = (int) (sequence & this.mMask) * 2;
+
+        this.mEntries.set(slot + 1, pack(direction, event, command, operation, length, sequence));
+        this.mEntries.set(slot, System.nanoTime() / 1000);
+    }
+
+    /**
+     * Records a frame written to the radio.  The frame is escaped, so the length, command and
+     * operation are unescaped from its first bytes.
+     */
+    void recordSent(byte[] frame) {
+        // length, command and operation bytes, first byte lowest
+        long fields = 0;
+        int count = 0;
+        boolean escaped = false;
+        for (int i = 1; i < frame.length && count < 5; i++) {
+            int b = frame[i] & 0xFF;
+            if (b == 0x1B && !escaped) {
+                escaped = true;
+                continue;
+            }
+            if (escaped && b == 0x48) {
+                b = 0xA4;
+            }
+            escaped = false;
+            fields |= (long) b << (8 * count++);
+        }
+
+        this.record(DIRECTION_TX, EVENT_FRAME, (int) (fields >>> 8) & 0xFFFF,
+                (int) (fields >>> 24) & 0xFFFF, (int) fields & 0xFF);
+    }
+
+    /**
+     * Copies the ring, oldest entry first.  Entries overwritten while copying are left out.
+     */
+    long[] snapshot() {
+        long end = this.mSequence.get();
+        long start = Math.max(0, end - (this.mMask + 1));
+        long[] copy = new long[(int) (end - start) * 2];
+        int count = 0;
+
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence & this.mMask) * 2;
+            long info = this.mEntries.get(slot + 1);
+            long timestamp = this.mEntries.get(slot);
+            if (info != this.mEntries.get(slot + 1) ||
+                    ((info >>> 48) & 0xFFFF) != (sequence & 0xFFFF)) {
+                continue;
+            }
+            copy[count * 2] = timestamp;
+            copy[count * 2 + 1] = info;
+            count++;
+        }
+
+        if (count * 2 == copy.length) {
+            return copy;
+        }
+        long[] trimmed = new long[count * 2];
+        System.arraycopy(copy, 0, trimmed, 0, trimmed.length);
+        return trimmed;
+    }
+
+    /**
+     * Writes a snapshot to a file, replacing its contents
+     *
+     * @return  true if the file was written
+     */
+    static boolean write(@NonNull File file, @NonNull long[] entries, long wallTime,
+                         long timestamp) {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(FILE_MAGIC);
+            out.writeShort(FILE_VERSION);
+            out.writeShort(0);
+            out.writeLong(wallTime);
+            out.writeLong(timestamp);
+            out.writeInt(entries.length / 2);
+            for (long value : entries) {
+                out.writeLong(value);
+            }
+            out.flush();
+            return true;
+        } catch (IOException e) {
+            Timber.w(e, "Unable to write flight recorder dump");
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
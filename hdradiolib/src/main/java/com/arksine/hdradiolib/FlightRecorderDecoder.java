@@ -0,0 +1,107 @@
+package com.arksine.hdradiolib;
+
+import com.arksine.hdradiolib.enums.RadioCommand;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Prints a flight recorder dump as text, one line per entry.  Runs on a desktop JVM:
+ *
+ *  java -cp hdradiolib.jar com.arksine.hdradiolib.FlightRecorderDecoder flight_recorder.bin
+ *
+ * Command names are resolved when the Android classes are on the class path, otherwise the
+ * command code is printed.
+ */
+
+public class FlightRecorderDecoder {
+
+    private static final String[] EVENT_NAMES = {
+            "FRAME", "CHECKSUM_ERROR", "RESYNC", "ZERO_LENGTH", "NOT_REPLY", "UNKNOWN_COMMAND",
+            "SHORT_PACKET", "STRAY_BYTES", "PARSE_ERROR"
+    };
+
+    private FlightRecorderDecoder() {}
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: FlightRecorderDecoder <dump file> ...");
+            System.exit(1);
+        }
+
+        for (String path : args) {
+            try {
+                decode(path, System.out);
+            } catch (IOException e) {
+                System.err.println(path + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+
+    static void decode(String path, PrintStream out) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(path)));
+        try {
+            if (in.readInt() != FlightRecorder.FILE_MAGIC) {
+                throw new IOException("Not a flight recorder dump");
+            }
+            int version = in.readShort();
+            if (version != FlightRecorder.FILE_VERSION) {
+                throw new IOException("Unsupported dump version " + version);
+            }
+            in.readShort();
+            long wallTime = in.readLong();
+            long dumpTimestamp = in.readLong();
+            int count = in.readInt();
+
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+            out.printf("%s: %d entries, dumped %s%n", path, count,
+                    format.format(new Date(wallTime)));
+
+            long previous = -1;
+            for (int i = 0; i < count; i++) {
+                long timestamp = in.readLong();
+                long info = in.readLong();
+
+                // Wall clock time of the entry, from its age at the time of the dump
+                long entryTime = wallTime - (dumpTimestamp - timestamp) / 1000;
+                long delta = (previous < 0) ? 0 : timestamp - previous;
+                previous = timestamp;
+
+                int length = (int) (info & 0xFFFF);
+                int command = (int) ((info >>> 16) & 0xFFFF);
+                int operation = (int) ((info >>> 32) & 0xFF);
+                int direction = (int) ((info >>> 40) & 0x3);
+                int event = (int) ((info >>> 42) & 0x3F);
+
+                out.printf("%s %+9d us %s %-15s %-20s op=%d len=%d%n",
+                        format.format(new Date(entryTime)), delta,
+                        (direction == FlightRecorder.DIRECTION_TX) ? "TX" : "RX",
+                        (event < EVENT_NAMES.length) ? EVENT_NAMES[event] : "EVENT_" + event,
+                        commandName(command), operation, length);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String commandName(int code) {
+        try {
+            for (RadioCommand command : RadioCommand.values()) {
+                if (command.getByteValueAsInt() == code) {
+                    return command.toString();
+                }
+            }
+        } catch (LinkageError e) {
+            // Android classes unavailable
+        }
+        return String.format(Locale.US, "%#06x", code);
+    }
+}
@@ -8,8 +8,10 @@ import android.os.Looper;
 import android.os.Process;
 import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.util.SparseIntArray;
 
 import com.arksine.hdradiolib.drivers.ArduinoDriver;
+import com.arksine.hdradiolib.drivers.ControlSequence;
 import com.arksine.hdradiolib.drivers.MJSRadioDriver;
 import com.arksine.hdradiolib.enums.PowerStatus;
 import com.arksine.hdradiolib.enums.RadioBand;
@@ -17,10 +19,16 @@ import com.arksine.hdradiolib.enums.RadioCommand;
 import com.arksine.hdradiolib.enums.RadioConstant;
 import com.arksine.hdradiolib.drivers.RadioDriver;
 import com.arksine.hdradiolib.enums.RadioError;
-import com.arksine.hdradiolib.enums.RadioOperation;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReference;
 
 import timber.log.Timber;
@@ -36,10 +44,17 @@ public class HDRadio {
     public enum DriverType {MJS_DRIVER, ARDUINO_DRIVER, CUSTOM}
 
     private static final int POST_COMMAND_DELAY = 150;
+    private static final int MAX_BURST_PACKETS = 8;
     private static final int POST_TUNE_DELAY = 1000;
     private static final int POWER_TOGGLE_DELAY = 2000;
     private final Object POWER_LOCK = new Object();
 
+    // Mute, power off, then release the mute once the radio is off
+    private static final ControlSequence POWER_OFF_SEQUENCE = new ControlSequence()
+            .setLines(true, true).delay(50)
+            .setLines(true, false).delay(50)
+            .setLines(false, false);
+
     private Context mContext;
     private RadioValues mRadioValues;
     private RadioDataHandler mDataHandler;
@@ -50,34 +65,130 @@ public class HDRadio {
     private AtomicReference<PowerStatus> mPowerStatus = new AtomicReference<>(PowerStatus.POWERED_OFF);
     private AtomicBoolean mIsWaiting = new AtomicBoolean(false);
     private AtomicBoolean mSeekAll = new AtomicBoolean(true);
+    private AtomicBoolean mAutoReconnect = new AtomicBoolean(false);
+    private final RadioMetrics mMetrics = new RadioMetrics();
+    private final FlightRecorder mFlightRecorder = new FlightRecorder();
+    private final LinkMetrics mLinkMetrics = new LinkMetrics();
+    private ReconnectSupervisor mReconnectSupervisor;
+    private volatile long mRestoreStartTime = 0;
+    private volatile long mPowerOnStartTime = 0;
+    private InitPlanner mInitPlanner;
+    private InitTracker mInitTracker;
+
+    // Time each GET currently waiting for its reply was requested, by RadioCommand ordinal
+    private static final long UPDATE_REQUEST_TIMEOUT = 1000;
+    private final AtomicLongArray mUpdateRequests =
+            new AtomicLongArray(RadioCommand.values().length);
+
+    // Bulk update requests waiting for replies
+    private static final long BULK_UPDATE_TIMEOUT = 2000;
+    private final CopyOnWriteArrayList<UpdateBatch> mUpdateBatches =
+            new CopyOnWriteArrayList<>();
+
+    private SubchannelAcquirer mSubchannelAcquirer;
+    private volatile BandPlan mBandPlan = BandPlan.NORTH_AMERICA;
+
+    private static final String STATION_CACHE_FILE = "station_cache.dat";
+    private static final String STATION_DATABASE_FILE = "stations.db";
+    private static final String STATE_JOURNAL_FILE = "radio_state.journal";
+    private static final String FLIGHT_RECORDER_FILE = "flight_recorder.bin";
+    private Looper mStorageLooper;
+    private Handler mStorageHandler;
+    private StationCache mStationCache;
+    private volatile StationDatabase mStationDatabase = null;
+    private StateJournal mStateJournal;
+    private BandScanner mBandScanner;
+
+    // Incremented by every tune, seek and tune step request.  Queued requests that no longer
+    // match it have been superseded and are dropped before being written.
+    private final AtomicInteger mTuneGeneration = new AtomicInteger(0);
+
+    // Tune up/down presses are accumulated here and sent as a single direct tune
+    private static final long STEP_TARGET_TIMEOUT = 1000;
+    private final Object TUNE_STEP_LOCK = new Object();
+    private int mPendingTuneSteps = 0;
+    private int mTuneStepGeneration = 0;
+    private boolean mTuneStepScheduled = false;
+    private TuneInfo mLastStepTarget = null;
+    private long mLastStepTime = 0;
+    private final Runnable mTuneStepRunnable = new Runnable() {
+        @Override
+        public void run() {
+            HDRadio.this.sendTuneSteps();
+        }
+    };
+    private SignalPoller mSignalPoller;
+
+    // Requested volume, bass and treble not yet confirmed by the radio
+    private static final int MAX_AUDIO_LEVEL = 90;
+    private PendingValue mPendingVolume;
+    private PendingValue mPendingBass;
+    private PendingValue mPendingTreble;
 
-    private final SetSubchannelRunnable mSetSubchannelRunnable = new SetSubchannelRunnable();
-    private final Runnable mRequestSignalRunnable = new Runnable() {
+    private VolumeRamp mVolumeRamp;
+    private volatile long mPowerOnFadeDuration = 0;
+    private volatile VolumeRamp.Curve mPowerOnFadeCurve = VolumeRamp.Curve.EASE_IN;
+
+    // Run on the storage handler.  The database is open from construction until close(), and
+    // is opened again by open()
+    private final Runnable mOpenDatabaseRunnable = new Runnable() {
         @Override
         public void run() {
-            // If HD is active, request HD signal strength
-            if (HDRadio.this.mRadioValues.mHdActive.get()) {
-                HDRadio.this.sendRadioCommand(RadioCommand.HD_SIGNAL_STRENGTH,
-                        RadioOperation.GET, null);
-            } else {
-                HDRadio.this.sendRadioCommand(RadioCommand.SIGNAL_STRENGTH,
-                        RadioOperation.GET, null);
+            if (HDRadio.this.mStationDatabase != null) {
+                return;
             }
+            try {
+                HDRadio.this.mStationDatabase = StationDatabase.open(new File(
+                        HDRadio.this.mContext.getFilesDir(), STATION_DATABASE_FILE));
+            } catch (IOException e) {
+                Timber.w(e, "Unable to open station database");
+            }
+        }
+    };
 
-            HDRadio.this.mControlHandler.postDelayed(mRequestSignalRunnable, 800);
+    private final Runnable mCloseDatabaseRunnable = new Runnable() {
+        @Override
+        public void run() {
+            StationDatabase database = HDRadio.this.mStationDatabase;
+            if (database != null) {
+                HDRadio.this.mStationDatabase = null;
+                database.close();
+            }
         }
     };
 
     private final RadioDriver.DriverEvents mDriverEvents = new RadioDriver.DriverEvents() {
         @Override
-        public void onOpened(boolean success) {
-            HDRadio.this.mEventHandler.handleOpenedEvent(success, HDRadio.this.mController);
+        public void onOpened(final boolean success) {
+            HDRadio.this.mControlHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    ReconnectSupervisor supervisor = HDRadio.this.mReconnectSupervisor;
+                    if (supervisor.isReconnecting()) {
+                        supervisor.onOpenResult(success);
+
+                        // Failed attempts are retried, so only a successful reopen is dispatched
+                        if (!success) {
+                            return;
+                        }
+                    }
+                    if (success) {
+                        HDRadio.this.mLinkMetrics.attachDriver(
+                                HDRadio.this.mRadioDriver.getClass().getSimpleName());
+                    }
+                    HDRadio.this.mEventHandler.handleOpenedEvent(success, HDRadio.this.mController);
+                }
+            });
         }
 
         @Override
         public void onError(RadioError error) {
+            if (error == RadioError.CONNECTION_ERROR && HDRadio.this.mAutoReconnect.get()) {
+                HDRadio.this.onConnectionLost();
+            }
+
             // Send Device Error Callback
-            HDRadio.this.mEventHandler.handleDeviceErrorEvent(error);
+            HDRadio.this.reportError(error);
         }
 
         @Override
@@ -91,6 +202,7 @@ public class HDRadio {
         @Override
         public void setSeekAll(final boolean seekAll) {
              HDRadio.this.mSeekAll.set(seekAll);
+             HDRadio.this.mStateJournal.record(StateJournal.KEY_SEEKALL, seekAll ? 1 : 0);
         }
 
         @Override
@@ -103,7 +215,7 @@ public class HDRadio {
             HDRadio.this.mControlHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    HDRadio.this.powerOnRadio();
+                    HDRadio.this.powerOnRadio(false);
                 }
             });
         }
@@ -133,7 +245,7 @@ public class HDRadio {
             HDRadio.this.mControlHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    HDRadio.this.sendRadioCommand(RadioCommand.MUTE, RadioOperation.SET, true);
+                    HDRadio.this.sendRadioCommand(RadioCommand.MUTE, true);
                 }
             });
         }
@@ -143,148 +255,80 @@ public class HDRadio {
             HDRadio.this.mControlHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    HDRadio.this.sendRadioCommand(RadioCommand.MUTE, RadioOperation.SET, false);
+                    HDRadio.this.sendRadioCommand(RadioCommand.MUTE, false);
                 }
             });
         }
 
         @Override
         public void setVolume(final int volume) {
-            HDRadio.this.mControlHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    HDRadio.this.sendRadioCommand(RadioCommand.VOLUME, RadioOperation.SET, volume);
-                }
-            });
+            HDRadio.this.mVolumeRamp.cancel();
+            HDRadio.this.requestValue(HDRadio.this.mPendingVolume, volume);
         }
 
         @Override
         public void setVolumeUp() {
-            HDRadio.this.mControlHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    //sendRadioCommand(RadioCommand.VOLUME, RadioOperation.SET, RadioConstant.UP);
-                    int volume = HDRadio.this.mRadioValues.mVolume.get();
-                    volume++;
-
-                    if (volume <= 90) {
-                        HDRadio.this.sendRadioCommand(RadioCommand.VOLUME, RadioOperation.SET, volume);
-                    }
-                }
-            });
+            HDRadio.this.mVolumeRamp.cancel();
+            HDRadio.this.adjustValue(HDRadio.this.mPendingVolume, 1);
         }
 
         @Override
         public void setVolumeDown() {
-            HDRadio.this.mControlHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    int volume = HDRadio.this.mRadioValues.mVolume.get();
-                    volume--;
-
-                    if (volume >= 0) {
-                        HDRadio.this.sendRadioCommand(RadioCommand.VOLUME, RadioOperation.SET, volume);
-                    }
-                }
-            });
+            HDRadio.this.mVolumeRamp.cancel();
+            HDRadio.this.adjustValue(HDRadio.this.mPendingVolume, -1);
         }
 
         @Override
         public void setBass(final int bass) {
-            HDRadio.this.mControlHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    HDRadio.this.sendRadioCommand(RadioCommand.BASS, RadioOperation.SET, bass);
-                }
-            });
+            HDRadio.this.requestValue(HDRadio.this.mPendingBass, bass);
         }
 
         @Override
         public void setBassUp() {
-            HDRadio.this.mControlHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    int bass = HDRadio.this.mRadioValues.mBass.get();
-                    bass++;
-
-                    if (bass <= 90) {
-                        HDRadio.this.sendRadioCommand(RadioCommand.BASS, RadioOperation.SET, bass);
-                    }
-                }
-            });
+            HDRadio.this.adjustValue(HDRadio.this.mPendingBass, 1);
         }
 
         @Override
         public void setBassDown() {
-            HDRadio.this.mControlHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    int bass = HDRadio.this.mRadioValues.mBass.get();
-                    bass--;
-
-                    if (bass >= 0) {
-                        HDRadio.this.sendRadioCommand(RadioCommand.BASS, RadioOperation.SET, bass);
-                    }
-                }
-            });
+            HDRadio.this.adjustValue(HDRadio.this.mPendingBass, -1);
         }
 
         @Override
         public void setTreble(final int treble) {
-            HDRadio.this.mControlHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    HDRadio.this.sendRadioCommand(RadioCommand.TREBLE, RadioOperation.SET, treble);
-                }
-            });
+            HDRadio.this.requestValue(HDRadio.this.mPendingTreble, treble);
         }
 
         @Override
         public void setTrebleUp() {
-            HDRadio.this.mControlHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    int treble = HDRadio.this.mRadioValues.mTreble.get();
-                    treble++;
-
-                    if (treble <= 90) {
-                        HDRadio.this.sendRadioCommand(RadioCommand.TREBLE, RadioOperation.SET, treble);
-                    }
-                }
-            });
+            HDRadio.this.adjustValue(HDRadio.this.mPendingTreble, 1);
         }
 
         @Override
         public void setTrebleDown() {
-            HDRadio.this.mControlHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    int treble = HDRadio.this.mRadioValues.mTreble.get();
-                    treble--;
-
-                    if (treble >= 0) {
-                        HDRadio.this.sendRadioCommand(RadioCommand.TREBLE, RadioOperation.SET, treble);
-                    }
-                }
-            });
+            HDRadio.this.adjustValue(HDRadio.this.mPendingTreble, -1);
         }
 
         @Override
         public void tune(final TuneInfo tuneInfo) {
+            final int generation = HDRadio.this.mTuneGeneration.incrementAndGet();
             HDRadio.this.mControlHandler.post(new Runnable() {
                 @Override
                 public void run() {
+                    if (HDRadio.this.isTuneSuperseded(generation)) {
+                        return;
+                    }
+
                     // Remove pending Signal Requests
-                    HDRadio.this.mControlHandler.removeCallbacks(mRequestSignalRunnable);
-                    HDRadio.this.mControlHandler.removeCallbacks(mSetSubchannelRunnable);
+                    HDRadio.this.mSignalPoller.stop();
+                    HDRadio.this.mSubchannelAcquirer.cancel();
+                    HDRadio.this.mBandScanner.cancel(false);
+                    HDRadio.this.clearStepTarget();
 
-                    HDRadio.this.sendRadioCommand(RadioCommand.TUNE, RadioOperation.SET, tuneInfo);
+                    HDRadio.this.mDataHandler.expectTune(tuneInfo);
+                    HDRadio.this.sendTuneCommand(tuneInfo);
 
-                    final int subchannel = tuneInfo.getSubChannel();
-                    if (subchannel > 0) {
-                        // Start subchannel requests
-                        HDRadio.this.mSetSubchannelRunnable.setSubchannel(subchannel);
-                    }
+                    // Select the subchannel once HD reports it is available
+                    HDRadio.this.mSubchannelAcquirer.request(tuneInfo.getSubChannel());
 
                 }
             });
@@ -292,28 +336,12 @@ public class HDRadio {
 
         @Override
         public void tuneUp() {
-            HDRadio.this.mControlHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    // Remove pending Signal Requests
-                    HDRadio.this.mControlHandler.removeCallbacks(mRequestSignalRunnable);
-                    HDRadio.this.mControlHandler.removeCallbacks(mSetSubchannelRunnable);
-                    HDRadio.this.sendRadioCommand(RadioCommand.TUNE, RadioOperation.SET, RadioConstant.UP);
-                }
-            });
+            HDRadio.this.addTuneSteps(1);
         }
 
         @Override
         public void tuneDown() {
-            HDRadio.this.mControlHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    // Remove pending Signal Requests
-                    HDRadio.this.mControlHandler.removeCallbacks(mRequestSignalRunnable);
-                    HDRadio.this.mControlHandler.removeCallbacks(mSetSubchannelRunnable);
-                    HDRadio.this.sendRadioCommand(RadioCommand.TUNE, RadioOperation.SET, RadioConstant.DOWN);
-                }
-            });
+            HDRadio.this.addTuneSteps(-1);
         }
 
         @Override
@@ -321,49 +349,128 @@ public class HDRadio {
             HDRadio.this.mControlHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    HDRadio.this.mControlHandler.removeCallbacks(mSetSubchannelRunnable);
-                    HDRadio.this.sendRadioCommand(RadioCommand.HD_SUBCHANNEL, RadioOperation.SET, subChannel);
+                    HDRadio.this.mSubchannelAcquirer.cancel();
+                    HDRadio.this.sendRadioCommand(RadioCommand.HD_SUBCHANNEL, subChannel);
                 }
             });
         }
 
         @Override
         public void seekUp() {
+            final int generation = HDRadio.this.mTuneGeneration.incrementAndGet();
             HDRadio.this.mControlHandler.post(new Runnable() {
                 @Override
                 public void run() {
+                    if (HDRadio.this.isTuneSuperseded(generation)) {
+                        return;
+                    }
+
                     // Remove pending Signal Requests
-                    HDRadio.this.mControlHandler.removeCallbacks(mRequestSignalRunnable);
-                    HDRadio.this.mControlHandler.removeCallbacks(mSetSubchannelRunnable);
+                    HDRadio.this.mSignalPoller.stop();
+                    HDRadio.this.mSubchannelAcquirer.cancel();
+                    HDRadio.this.mBandScanner.cancel(false);
+                    HDRadio.this.clearStepTarget();
+
+                    // The seek destination is unknown, so accept whichever tune is reported
+                    HDRadio.this.mDataHandler.expectTune(null);
                     SeekData seekData = new SeekData(RadioConstant.UP,
                             HDRadio.this.mRadioValues.mTune.get().getBand(),
                             HDRadio.this.mSeekAll.get());
-                    HDRadio.this.sendRadioCommand(RadioCommand.SEEK, RadioOperation.SET, seekData);
+                    HDRadio.this.sendSeekCommand(seekData);
                 }
             });
         }
 
         @Override
         public void seekDown() {
+            final int generation = HDRadio.this.mTuneGeneration.incrementAndGet();
             HDRadio.this.mControlHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    HDRadio.this.mControlHandler.removeCallbacks(mRequestSignalRunnable);
-                    HDRadio.this.mControlHandler.removeCallbacks(mSetSubchannelRunnable);
+                    if (HDRadio.this.isTuneSuperseded(generation)) {
+                        return;
+                    }
+
+                    HDRadio.this.mSignalPoller.stop();
+                    HDRadio.this.mSubchannelAcquirer.cancel();
+                    HDRadio.this.mBandScanner.cancel(false);
+                    HDRadio.this.clearStepTarget();
+                    HDRadio.this.mDataHandler.expectTune(null);
                     SeekData seekData = new SeekData(RadioConstant.DOWN,
                                     HDRadio.this.mRadioValues.mTune.get().getBand(),
                                     HDRadio.this.mSeekAll.get());
-                    HDRadio.this.sendRadioCommand(RadioCommand.SEEK, RadioOperation.SET, seekData);
+                    HDRadio.this.sendSeekCommand(seekData);
                 }
             });
         }
 
         @Override
         public void requestUpdate(final RadioCommand command) {
+            this.requestUpdate(command, 0);
+        }
+
+        @Override
+        public void requestUpdate(final RadioCommand command, final long maxAge) {
+            long now = SystemClock.elapsedRealtime();
+            long updateTime = HDRadio.this.mRadioValues.getUpdateTime(command);
+            if (maxAge > 0 && updateTime != 0 && now - updateTime <= maxAge &&
+                    HDRadio.this.mDataHandler.dispatchStoredValue(command)) {
+                HDRadio.this.mMetrics.recordUpdateCacheHit();
+                return;
+            }
+            HDRadio.this.mMetrics.recordUpdateCacheMiss();
+
+            // Only one GET per command is kept in flight, later requests share its reply
+            int index = command.ordinal();
+            long requested = HDRadio.this.mUpdateRequests.get(index);
+            if ((requested != 0 && now - requested < UPDATE_REQUEST_TIMEOUT) ||
+                    !HDRadio.this.mUpdateRequests.compareAndSet(index, requested, now)) {
+                HDRadio.this.mMetrics.recordUpdateCoalesced();
+                return;
+            }
+
+            HDRadio.this.mControlHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    HDRadio.this.sendRadioRequest(command);
+                }
+            });
+        }
+
+        @Override
+        public void requestUpdates(final EnumSet<RadioCommand> commands,
+                                   final UpdateListener listener) {
+            final EnumSet<RadioCommand> requested = EnumSet.copyOf(commands);
+            // Seek can only be set
+            requested.remove(RadioCommand.SEEK);
+
+            final UpdateBatch batch = new UpdateBatch(requested, listener);
+            if (requested.isEmpty()) {
+                batch.expire();
+                HDRadio.this.deliverUpdateBatch(batch);
+                return;
+            }
+            HDRadio.this.mUpdateBatches.add(batch);
+
             HDRadio.this.mControlHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    HDRadio.this.sendRadioCommand(command, RadioOperation.GET, null);
+                    long now = SystemClock.elapsedRealtime();
+                    ArrayList<byte[]> burst = new ArrayList<>(requested.size());
+                    for (RadioCommand command : requested) {
+                        HDRadio.this.mUpdateRequests.set(command.ordinal(), now);
+                        burst.add(RadioPacketBuilder.encodeGet(command));
+                    }
+                    HDRadio.this.sendRadioBurst(burst);
+
+                    HDRadio.this.mControlHandler.postDelayed(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (batch.expire()) {
+                                HDRadio.this.deliverUpdateBatch(batch);
+                            }
+                        }
+                    }, BULK_UPDATE_TIMEOUT);
                 }
             });
         }
@@ -482,6 +589,11 @@ public class HDRadio {
         public int getCompression() {
             return HDRadio.this.mRadioValues.mCompression.get();
         }
+
+        @Override
+        public boolean isCachedValue(RadioCommand command) {
+            return HDRadio.this.mRadioValues.isCached(command);
+        }
     };
 
     // Constructor that defaults to the MJS driver
@@ -497,6 +609,7 @@ public class HDRadio {
         if (!this.mRadioDriver.isInitialized()) {
             this.mRadioDriver.initialize(mDataHandler, mDriverEvents);
         }
+        this.mReconnectSupervisor.setDriver(driver);
     }
 
     /**
@@ -514,11 +627,17 @@ public class HDRadio {
                 context.getString(R.string.pref_file_key), Context.MODE_PRIVATE);
 
         this.mRadioValues = new RadioValues();
+        this.mPendingVolume = new PendingValue(RadioCommand.VOLUME, this.mRadioValues.mVolume,
+                this.mMetrics, 0, MAX_AUDIO_LEVEL);
+        this.mPendingBass = new PendingValue(RadioCommand.BASS, this.mRadioValues.mBass,
+                this.mMetrics, 0, MAX_AUDIO_LEVEL);
+        this.mPendingTreble = new PendingValue(RadioCommand.TREBLE, this.mRadioValues.mTreble,
+                this.mMetrics, 0, MAX_AUDIO_LEVEL);
 
         HandlerThread eventHandlerThread = new HandlerThread("EventHandlerThread");
         eventHandlerThread.start();
         Looper eventLooper = eventHandlerThread.getLooper();
-        this.mEventHandler = new EventHandler(callbacks, eventLooper);
+        this.mEventHandler = new EventHandler(callbacks, eventLooper, this.mMetrics);
 
         // Control Handler
         HandlerThread controlHandlerThread = new HandlerThread("ControlHandlerThread");
@@ -539,20 +658,71 @@ public class HDRadio {
 
             @Override
             public void onTuneReceived() {
-                HDRadio.this.mControlHandler.postDelayed(mRequestSignalRunnable, 1000);
+                // The scanner samples signal strength itself while sweeping
+                if (!HDRadio.this.mBandScanner.onTuneReceived()) {
+                    HDRadio.this.mSignalPoller.start(1000);
+                }
+            }
+
+            @Override
+            public void onReplyReceived(RadioCommand command) {
+                HDRadio.this.mUpdateRequests.set(command.ordinal(), 0);
+                if (!HDRadio.this.mUpdateBatches.isEmpty()) {
+                    for (UpdateBatch batch : HDRadio.this.mUpdateBatches) {
+                        if (batch.onReply(command)) {
+                            HDRadio.this.deliverUpdateBatch(batch);
+                        }
+                    }
+                }
+                HDRadio.this.mInitTracker.onReply(command);
+                HDRadio.this.mInitPlanner.onReply(command);
+                HDRadio.this.mSubchannelAcquirer.onReply(command);
+                HDRadio.this.mBandScanner.onReply(command);
+                HDRadio.this.reconcileValue(command);
+                HDRadio.this.updateStationDatabase(command);
+                HDRadio.this.recordState(command);
             }
+        };
 
+        InitTracker.InitEvents initCbs = new InitTracker.InitEvents() {
             @Override
-            public void onInitComplete() {
+            public void onInitComplete(int missing) {
                 // If initializing, set to Powered on, unmute, and fire event
                 if (HDRadio.this.mPowerStatus.compareAndSet(PowerStatus.INITIALIZING,
                         PowerStatus.POWERED_ON)) {
 
+                    if (HDRadio.this.mRestoreStartTime != 0) {
+                        HDRadio.this.mMetrics.recordRestoreTime(SystemClock.elapsedRealtime()
+                                - HDRadio.this.mRestoreStartTime);
+                        HDRadio.this.mRestoreStartTime = 0;
+                    }
+
                     HDRadio.this.mControlHandler.postDelayed(new Runnable() {
                         @Override
                         public void run() {
+                            // Start a power on fade from silence while still muted
+                            long fade = HDRadio.this.mPowerOnFadeDuration;
+                            int volume = HDRadio.this.mPendingVolume.getRequested();
+                            int generation = HDRadio.this.mVolumeRamp.supersede();
+                            if (fade > 0 && volume > 0) {
+                                HDRadio.this.mVolumeRamp.prepare(generation, volume);
+                                HDRadio.this.sendRadioCommand(RadioCommand.VOLUME, 0);
+                            }
+
                             // release RTS (hardware mute)
                             HDRadio.this.mRadioDriver.clearRts();
+
+                            if (fade > 0 && volume > 0) {
+                                HDRadio.this.mVolumeRamp.start(generation, 0, volume, fade,
+                                        HDRadio.this.mPowerOnFadeCurve);
+                            }
+
+                            if (HDRadio.this.mPowerOnStartTime != 0) {
+                                HDRadio.this.mMetrics.recordTimeToFirstAudio(
+                                        SystemClock.elapsedRealtime()
+                                                - HDRadio.this.mPowerOnStartTime);
+                                HDRadio.this.mPowerOnStartTime = 0;
+                            }
                         }
                     }, 200);
 
@@ -560,9 +730,63 @@ public class HDRadio {
                     HDRadio.this.mEventHandler.handlePowerOnEvent();
                 }
             }
+
+            @Override
+            public void onInitFailed() {
+                // The radio powered on but never answered, treat it as a failed power on.  The
+                // power and mute lines are still raised, so power off the hardware as well
+                synchronized (HDRadio.this.POWER_LOCK) {
+                    if (HDRadio.this.mPowerStatus.compareAndSet(PowerStatus.INITIALIZING,
+                            PowerStatus.POWERING_OFF)) {
+                        HDRadio.this.mInitPlanner.cancel();
+                        if (HDRadio.this.isOpen()) {
+                            HDRadio.this.mRadioDriver.runControlSequence(POWER_OFF_SEQUENCE);
+                        }
+                        HDRadio.this.mRadioValues.mPower.set(false);
+                        HDRadio.this.mPowerOnStartTime = 0;
+                        HDRadio.this.mPowerStatus.set(PowerStatus.POWERED_OFF);
+                        HDRadio.this.mPreviousPowerTime = SystemClock.elapsedRealtime();
+                        HDRadio.this.reportError(RadioError.POWER_ERROR);
+                    }
+                }
+            }
+        };
+        this.mInitTracker = new InitTracker(this.mControlHandler, this.mMetrics, initCbs);
+
+        VolumeRamp.RampRequester rampRequester = new VolumeRamp.RampRequester() {
+            @Override
+            public long getStepInterval() {
+                return HDRadio.this.getCommandDelay();
+            }
+
+            @Override
+            public void writeVolume(int volume) {
+                // A flush already queued for the overlay will write the new value
+                if (HDRadio.this.mPendingVolume.set(volume)) {
+                    int value = HDRadio.this.mPendingVolume.takeFlush();
+                    if (value >= 0) {
+                        HDRadio.this.sendRadioCommand(RadioCommand.VOLUME, value);
+                    }
+                }
+            }
         };
+        this.mVolumeRamp = new VolumeRamp(this.mControlHandler, rampRequester);
+
+        // Storage Handler, for file writes that shouldn't hold up the radio's threads
+        HandlerThread storageHandlerThread = new HandlerThread("StorageHandlerThread",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        storageHandlerThread.start();
+        this.mStorageLooper = storageHandlerThread.getLooper();
+        this.mStorageHandler = new Handler(this.mStorageLooper);
+        this.mStateJournal = new StateJournal(new File(context.getFilesDir(), STATE_JOURNAL_FILE),
+                this.mStorageLooper);
+        this.mStorageHandler.post(this.mOpenDatabaseRunnable);
+        this.mStationCache = new StationCache(new File(context.getFilesDir(),
+                STATION_CACHE_FILE), this.mStorageLooper);
+
         this.mDataHandler = new RadioDataHandler(dataLooper, this.mEventHandler, dataCbs,
-                this.mRadioValues);
+                this.mRadioValues, this.mMetrics, this.mStationCache, this.mFlightRecorder,
+                this.mLinkMetrics);
 
         switch (dType) {
             case MJS_DRIVER:
@@ -582,11 +806,126 @@ public class HDRadio {
                 Timber.i("Invalid Driver Request, defaulting Mjs Driver");
         }
 
+        SignalPoller.PollRequester pollRequester = new SignalPoller.PollRequester() {
+            @Override
+            public void requestSignalStrength(boolean hdActive) {
+                // If HD is active, request HD signal strength
+                if (hdActive) {
+                    HDRadio.this.sendRadioRequest(RadioCommand.HD_SIGNAL_STRENGTH);
+                } else {
+                    HDRadio.this.sendRadioRequest(RadioCommand.SIGNAL_STRENGTH);
+                }
+            }
+        };
+        this.mSignalPoller = new SignalPoller(this.mControlHandler, this.mRadioValues,
+                this.mMetrics, pollRequester);
+
+        SubchannelAcquirer.SubchannelRequester subchannelRequester =
+                new SubchannelAcquirer.SubchannelRequester() {
+            @Override
+            public void setSubchannel(int subchannel) {
+                HDRadio.this.sendRadioCommand(RadioCommand.HD_SUBCHANNEL, subchannel);
+            }
+
+            @Override
+            public void requestSubchannelCount() {
+                HDRadio.this.sendRadioRequest(RadioCommand.HD_SUBCHANNEL_COUNT);
+            }
+        };
+        this.mSubchannelAcquirer = new SubchannelAcquirer(this.mControlHandler, this.mRadioValues,
+                this.mMetrics, subchannelRequester);
+
+        InitPlanner.InitRequester initRequester = new InitPlanner.InitRequester() {
+            @Override
+            public void tune(TuneInfo tuneInfo) {
+                HDRadio.this.mInitTracker.expect(RadioCommand.TUNE);
+                HDRadio.this.mController.tune(tuneInfo);
+            }
+
+            @Override
+            public void selectSubchannel(int subchannel) {
+                HDRadio.this.mSubchannelAcquirer.request(subchannel);
+            }
+
+            @Override
+            public void setValue(final RadioCommand command, final int value) {
+                HDRadio.this.mInitTracker.expect(command);
+                HDRadio.this.mControlHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        HDRadio.this.sendRadioCommand(command, value);
+                    }
+                });
+            }
+
+            @Override
+            public void onPlanComplete() {
+                // Nothing else is required after the API version request
+                HDRadio.this.mInitTracker.expect(RadioCommand.HD_API_VERSION);
+                HDRadio.this.mController.requestUpdate(RadioCommand.HD_API_VERSION);
+                HDRadio.this.mInitTracker.seal();
+            }
+        };
+        this.mInitPlanner = new InitPlanner(this.mControlHandler, this.mRadioValues,
+                this.mMetrics, initRequester);
+
+        BandScanner.ScanRequester scanRequester = new BandScanner.ScanRequester() {
+            @Override
+            public void tune(TuneInfo tuneInfo) {
+                // Scan tunes leave the tune generation alone.  Requests queued before the scan
+                // were superseded by startScan, and a user tune queued during the scan must
+                // still run so it can cancel the scan.
+                HDRadio.this.mSignalPoller.stop();
+                HDRadio.this.mSubchannelAcquirer.cancel();
+                HDRadio.this.mDataHandler.expectTune(tuneInfo);
+                HDRadio.this.sendTuneCommand(tuneInfo);
+            }
+
+            @Override
+            public void requestSignalStrength() {
+                HDRadio.this.sendRadioRequest(RadioCommand.SIGNAL_STRENGTH);
+            }
+
+            @Override
+            public void restoreTune(TuneInfo tuneInfo) {
+                HDRadio.this.mController.tune(tuneInfo);
+            }
+
+            @Override
+            public void recordStation(final BandScanner.ScanResult result) {
+                HDRadio.this.mStorageHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        StationDatabase database = HDRadio.this.mStationDatabase;
+                        if (database != null) {
+                            database.recordSignal(result.getBand(), result.getFrequency(),
+                                    result.getSignalStrength(), result.isHdActive());
+                        }
+                    }
+                });
+            }
+        };
+        this.mBandScanner = new BandScanner(this.mControlHandler, this.mEventHandler,
+                this.mRadioValues, scanRequester);
+
+        ReconnectSupervisor.ReconnectEvents reconnectCbs = new ReconnectSupervisor.ReconnectEvents() {
+            @Override
+            public void onReconnected(boolean restorePower) {
+                if (restorePower) {
+                    HDRadio.this.mRestoreStartTime = SystemClock.elapsedRealtime();
+                    HDRadio.this.powerOnRadio(true);
+                }
+            }
+        };
+        this.mReconnectSupervisor = new ReconnectSupervisor(context, this.mControlHandler,
+                this.mMetrics, this.mLinkMetrics, reconnectCbs);
+        this.mReconnectSupervisor.setDriver(this.mRadioDriver);
     }
 
 
     public void openById(final String deviceId) {
         if (!this.isOpen()) {
+            this.reopenStationDatabase();
             this.mRadioDriver.openById(deviceId);
         } else {
             Timber.i("HD Radio already open.");
@@ -598,12 +937,26 @@ public class HDRadio {
      */
     public void open() {
         if (!this.isOpen()) {
+            this.reopenStationDatabase();
             this.mRadioDriver.open();
         } else {
             Timber.i("HD Radio already open.");
         }
     }
 
+    /**
+     * Opens the station database again after close().  Queued through the control handler so it
+     * runs after the close of an earlier close() call.
+     */
+    private void reopenStationDatabase() {
+        this.mControlHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                HDRadio.this.mStorageHandler.post(HDRadio.this.mOpenDatabaseRunnable);
+            }
+        });
+    }
+
     public void close() {
 
         // Run this on the control handler's thread so any remaining requests in the queue
@@ -611,6 +964,9 @@ public class HDRadio {
         this.mControlHandler.post(new Runnable() {
             @Override
             public void run() {
+                HDRadio.this.mReconnectSupervisor.cancel();
+                HDRadio.this.mStationCache.flush();
+                HDRadio.this.mStorageHandler.post(HDRadio.this.mCloseDatabaseRunnable);
 
                 if (HDRadio.this.isOpen()) {
                     if (HDRadio.this.mPowerStatus.get() == PowerStatus.POWERED_ON) {
@@ -647,49 +1003,381 @@ public class HDRadio {
         return this.mRadioDriver.getDeviceList(listType);
     }
 
-
-    private synchronized void notifyPowerOn() {
-        if (this.mIsWaiting.compareAndSet(true, false)) {
-            notify();
-        }
-    }
-
     /**
-     * Powers on the radio.  Although it should only be called from mControlHandler's looper,
-     * it remains synchronized so a call to the RadioController's getPowerStatus() function is accurate
+     * Enables or disables automatic reconnection.  When enabled, a lost connection (for example
+     * a USB detach) is retried with exponential backoff, and if the radio was powered on its
+     * previous tune, volume, bass and treble are restored once the device is reopened.
+     *
+     * @param enabled       true to reconnect automatically
+     * @param maxAttempts   number of reopen attempts made before giving up
      */
-    private void powerOnRadio() {
-        synchronized (POWER_LOCK) {
-            // make sure that the device is open
-            if (!this.isOpen()) {
-                Timber.e("Device not open, cannot power on");
-                return;
-            }
-
-            long powerDelay = (this.mPreviousPowerTime + POWER_TOGGLE_DELAY)
-                    - SystemClock.elapsedRealtime();
-            if (powerDelay > 0) {
-                // sleep
-                try {
-                    Thread.sleep(powerDelay);
-                    Timber.d("Power delay, slept for: %d", powerDelay);
-                } catch (InterruptedException e) {
-                   Timber.w(e);
+    public void setAutoReconnect(final boolean enabled, final int maxAttempts) {
+        this.mAutoReconnect.set(enabled);
+        this.mControlHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                HDRadio.this.mReconnectSupervisor.setMaxAttempts(maxAttempts);
+                if (!enabled) {
+                    HDRadio.this.mReconnectSupervisor.cancel();
                 }
             }
+        });
+    }
 
-            if (this.mPowerStatus.compareAndSet(PowerStatus.POWERED_OFF, PowerStatus.POWERING_ON)) {
+    public boolean getAutoReconnect() {
+        return this.mAutoReconnect.get();
+    }
 
-                // Set the hardware mute so speakers dont get blown by the initial power on
-                this.mRadioDriver.raiseRts();
+    /**
+     * Sets the band plan used to compute tune up/down targets.  Defaults to North America.
+     */
+    public void setBandPlan(@NonNull BandPlan plan) {
+        this.mBandPlan = plan;
+    }
 
-                // Raise DTR to power on
-                this.mRadioDriver.raiseDtr();
+    public BandPlan getBandPlan() {
+        return this.mBandPlan;
+    }
 
-                // Wait until the radio gives a power on response, with a 10 second timeout
-                boolean timedOut = false;
-                synchronized (this) {
-                    try {
+    /**
+     * Scans every channel of a band in the current band plan, reporting stations to the
+     * listener as they are found.  Tuning, seeking or stepping cancels the scan.
+     *
+     * @param band      band to scan
+     * @param listener  receives progress, stations and the ranked station list
+     */
+    public void startScan(@NonNull final RadioBand band,
+                          @NonNull final BandScanner.ScanListener listener) {
+        final int generation = this.mTuneGeneration.incrementAndGet();
+        this.mControlHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (HDRadio.this.isTuneSuperseded(generation)) {
+                    return;
+                }
+
+                if (HDRadio.this.mPowerStatus.get() != PowerStatus.POWERED_ON) {
+                    Timber.i("Radio not powered on, cannot scan");
+                    return;
+                }
+
+                HDRadio.this.clearStepTarget();
+                HDRadio.this.mBandScanner.start(HDRadio.this.mBandPlan, band, listener);
+            }
+        });
+    }
+
+    /**
+     * Returns the database of received stations.  The library records signal statistics,
+     * callsigns and subchannel counts as they are received, and stations found by scans.
+     *
+     * The database is closed by close() and opened again by open(), so a reference should not be
+     * kept across them.
+     *
+     * @return  the station database, or null if it is not open or could not be opened
+     */
+    public StationDatabase getStationDatabase() {
+        return this.mStationDatabase;
+    }
+
+    /**
+     * Cancels a scan in progress and tunes back to the station playing before the scan.
+     */
+    public void cancelScan() {
+        this.mControlHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                HDRadio.this.mBandScanner.cancel(true);
+            }
+        });
+    }
+
+    /**
+     * Ramps the volume from its latest requested value to the target.  The ramp is written as
+     * the fewest VOLUME commands the radio link can carry over the duration, and is superseded
+     * by a later ramp or by setting the volume directly.
+     *
+     * @param target        volume to end at, 0 - 90
+     * @param durationMs    length of the ramp
+     * @param curve         shape of the ramp
+     */
+    public void rampVolume(final int target, final long durationMs,
+                           @NonNull final VolumeRamp.Curve curve) {
+        final int generation = this.mVolumeRamp.supersede();
+        this.mControlHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (HDRadio.this.mPowerStatus.get() != PowerStatus.POWERED_ON) {
+                    Timber.i("Radio not powered on, cannot ramp volume");
+                    return;
+                }
+
+                int from = HDRadio.this.mPendingVolume.getRequested();
+                int to = Math.max(0, Math.min(MAX_AUDIO_LEVEL, target));
+                HDRadio.this.mVolumeRamp.start(generation, from, to, durationMs, curve);
+            }
+        });
+    }
+
+    /**
+     * Fades the volume in from silence when the radio powers on.  Disabled by default.
+     *
+     * @param durationMs    length of the fade, 0 to disable
+     * @param curve         shape of the fade
+     */
+    public void setPowerOnFade(long durationMs, @NonNull VolumeRamp.Curve curve) {
+        this.mPowerOnFadeDuration = Math.max(0, durationMs);
+        this.mPowerOnFadeCurve = curve;
+    }
+
+    /**
+     * Returns the most recently requested volume, bass or treble.  This is the value relative
+     * adjustments are applied to, and may be ahead of the value the radio has confirmed.
+     *
+     * @param command   VOLUME, BASS or TREBLE
+     * @return  the requested value, or the confirmed value when no request is outstanding
+     */
+    public int getRequestedValue(RadioCommand command) {
+        PendingValue pending = this.getPendingValue(command);
+        return pending != null ? pending.getRequested() : -1;
+    }
+
+    /**
+     * Returns the difference between the requested and confirmed volume, bass or treble, for
+     * diagnostics.
+     *
+     * @param command   VOLUME, BASS or TREBLE
+     * @return  requested minus confirmed value, 0 when the radio has caught up
+     */
+    public int getValueDivergence(RadioCommand command) {
+        PendingValue pending = this.getPendingValue(command);
+        return pending != null ? pending.getDivergence() : 0;
+    }
+
+    private PendingValue getPendingValue(RadioCommand command) {
+        switch (command) {
+            case VOLUME:
+                return this.mPendingVolume;
+            case BASS:
+                return this.mPendingBass;
+            case TREBLE:
+                return this.mPendingTreble;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return  the band scanner, to configure dwell time and signal threshold
+     */
+    public BandScanner getBandScanner() {
+        return this.mBandScanner;
+    }
+
+    /**
+     * Sets the bounds of the adaptive signal strength poll.  Polling starts at the minimum
+     * interval after each tune or when readings fluctuate, and backs off towards the maximum
+     * while readings are stable.
+     *
+     * @param minIntervalMs     shortest time between requests, 800 ms by default
+     * @param maxIntervalMs     longest time between requests, 6400 ms by default
+     */
+    public void setSignalPollInterval(long minIntervalMs, long maxIntervalMs) {
+        this.mSignalPoller.setIntervalBounds(minIntervalMs, maxIntervalMs);
+    }
+
+    /**
+     * When on demand polling is enabled, signal strength is only requested while at least one
+     * subscriber is registered with subscribeSignalStrength.  Disabled by default, so signal
+     * strength is always polled while the radio is tuned.
+     */
+    public void setSignalPollOnDemand(boolean onDemand) {
+        this.mSignalPoller.setOnDemand(onDemand);
+    }
+
+    /**
+     * Registers interest in signal strength updates, for example while they are displayed.
+     * Each call must be balanced by a call to unsubscribeSignalStrength.
+     */
+    public void subscribeSignalStrength() {
+        this.mSignalPoller.addSubscriber();
+    }
+
+    public void unsubscribeSignalStrength() {
+        this.mSignalPoller.removeSubscriber();
+    }
+
+    /**
+     * Registers an additional listener for radio events.  Normal listeners are called on the
+     * event handler's thread, like the callbacks passed to the constructor.
+     *
+     * Direct listeners are called synchronously on the thread that parsed the event, without
+     * waiting for a looper hop.  They must not block: no I/O, no locks that may be held by other
+     * threads, and no waiting on the RadioController.  Every direct callback is timed, and calls
+     * that exceed the budget set with setDirectCallbackBudget are logged and counted in
+     * RadioMetrics.  Open, close and error events are delivered from the driver's threads.
+     *
+     * @param listener  listener to register
+     * @param direct    true to deliver events synchronously on the parsing thread
+     */
+    public void registerListener(@NonNull HDRadioEvents listener, boolean direct) {
+        this.mEventHandler.registerListener(listener, direct);
+    }
+
+    public void unregisterListener(@NonNull HDRadioEvents listener) {
+        this.mEventHandler.unregisterListener(listener);
+    }
+
+    /**
+     * Sets the time a direct listener callback may take before it is reported as an overrun.
+     *
+     * @param budgetMicros  budget in microseconds, 200 by default
+     */
+    public void setDirectCallbackBudget(long budgetMicros) {
+        this.mEventHandler.setDirectBudget(budgetMicros);
+    }
+
+    /**
+     * Enables or disables inline parsing.  When enabled, packets are decoded and radio values
+     * published directly on the driver's read thread instead of being handed to the data handler
+     * thread first.  Only listener callbacks are posted to another thread.  The parse latency
+     * counters in RadioMetrics can be used to compare both modes.
+     *
+     * @param inline    true to parse on the driver's read thread
+     */
+    public void setInlineParsing(boolean inline) {
+        this.mDataHandler.setInlineParsing(inline);
+    }
+
+    public boolean isInlineParsing() {
+        return this.mDataHandler.isInlineParsing();
+    }
+
+    /**
+     * Writes the flight recorder's record of recent protocol events to a file, on the storage
+     * thread.  The recorder is also dumped to flight_recorder.bin in the application's files
+     * directory whenever a RadioError is reported.  Dumps can be read with
+     * FlightRecorderDecoder.
+     *
+     * @param file  file to write, replaced if it exists
+     */
+    public void dumpFlightRecorder(@NonNull final File file) {
+        final long[] entries = this.mFlightRecorder.snapshot();
+        final long wallTime = System.currentTimeMillis();
+        final long timestamp = System.nanoTime() / 1000;
+        this.mStorageHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (FlightRecorder.write(file, entries, wallTime, timestamp)) {
+                    Timber.i("Flight recorder dumped to %s", file.getPath());
+                }
+            }
+        });
+    }
+
+    private void reportError(RadioError error) {
+        this.dumpFlightRecorder(new File(this.mContext.getFilesDir(), FLIGHT_RECORDER_FILE));
+        this.mEventHandler.handleDeviceErrorEvent(error);
+    }
+
+    /**
+     * @return  Health and throughput of the link to the radio
+     */
+    public LinkMetrics getLinkMetrics() {
+        return this.mLinkMetrics;
+    }
+
+    /**
+     * @return  Counters and timings collected by this radio instance
+     */
+    public RadioMetrics getMetrics() {
+        return this.mMetrics;
+    }
+
+    /**
+     * Called from the driver when its device has been lost.  Power state is reset, as the radio
+     * loses power along with the connection, and the reconnect supervisor is started.
+     */
+    private void onConnectionLost() {
+        final String deviceId = this.mRadioDriver.getIdentifier();
+        PowerStatus status = this.mPowerStatus.get();
+        final boolean wasPowered = (status == PowerStatus.POWERED_ON ||
+                status == PowerStatus.INITIALIZING);
+
+        if (wasPowered) {
+            this.mPowerStatus.set(PowerStatus.POWERED_OFF);
+        }
+        this.mRadioValues.mPower.set(false);
+
+        this.mControlHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                HDRadio.this.mSignalPoller.stop();
+                HDRadio.this.mSubchannelAcquirer.cancel();
+                HDRadio.this.mInitPlanner.cancel();
+                HDRadio.this.mInitTracker.cancel();
+                HDRadio.this.mVolumeRamp.cancel();
+                HDRadio.this.clearPendingValues();
+
+                // Restore the station playing before an interrupted scan, not the scan channel
+                TuneInfo scanOrigin = HDRadio.this.mBandScanner.cancel(false);
+                if (scanOrigin != null) {
+                    HDRadio.this.mRadioValues.mTune.set(scanOrigin);
+                    HDRadio.this.mStateJournal.record(StateJournal.KEY_TUNE,
+                            StateJournal.packTune(scanOrigin));
+                }
+                HDRadio.this.mStateJournal.flush();
+
+                HDRadio.this.mReconnectSupervisor.onConnectionLost(deviceId, wasPowered);
+            }
+        });
+    }
+
+
+    private synchronized void notifyPowerOn() {
+        if (this.mIsWaiting.compareAndSet(true, false)) {
+            notify();
+        }
+    }
+
+    /**
+     * Powers on the radio.  Although it should only be called from mControlHandler's looper,
+     * it remains synchronized so a call to the RadioController's getPowerStatus() function is accurate
+     *
+     * @param restore   true to restore the state held in RadioValues after a reconnect, rather
+     *                  than the persisted state
+     */
+    private void powerOnRadio(boolean restore) {
+        synchronized (POWER_LOCK) {
+            // make sure that the device is open
+            if (!this.isOpen()) {
+                Timber.e("Device not open, cannot power on");
+                return;
+            }
+
+            long powerDelay = (this.mPreviousPowerTime + POWER_TOGGLE_DELAY)
+                    - SystemClock.elapsedRealtime();
+            if (powerDelay > 0) {
+                // sleep
+                try {
+                    Thread.sleep(powerDelay);
+                    Timber.d("Power delay, slept for: %d", powerDelay);
+                } catch (InterruptedException e) {
+                   Timber.w(e);
+                }
+            }
+
+            if (this.mPowerStatus.compareAndSet(PowerStatus.POWERED_OFF, PowerStatus.POWERING_ON)) {
+                this.mPowerOnStartTime = SystemClock.elapsedRealtime();
+
+                // Set the hardware mute (RTS) so speakers dont get blown by the initial power on,
+                // and raise DTR to power on
+                this.mRadioDriver.setControlLines(true, true);
+
+                // Wait until the radio gives a power on response, with a 10 second timeout
+                boolean timedOut = false;
+                synchronized (this) {
+                    try {
                         this.mIsWaiting.set(true);
                         wait(10000);
                     } catch (InterruptedException e) {
@@ -697,7 +1385,7 @@ public class HDRadio {
                     } finally {
                         // Timeout was met, exit
                         if (this.mIsWaiting.compareAndSet(true, false)) {
-                            this.mEventHandler.handleDeviceErrorEvent(RadioError.POWER_ERROR);
+                            this.reportError(RadioError.POWER_ERROR);
                             this.mPowerStatus.set(PowerStatus.POWERED_OFF);
                             timedOut = true;
                         }
@@ -705,7 +1393,7 @@ public class HDRadio {
                 }
 
                 if (!timedOut) {
-                    this.initializeRadio();
+                    this.initializeRadio(restore);
                 }
 
             }
@@ -716,10 +1404,15 @@ public class HDRadio {
     }
 
     /**
-     * Called after every power on.  Requests hardware ids, sets persisted volume, treble, bass
-     * and Tune.
+     * Called after every power on.  Queries the radio's current tune, volume, bass and treble in
+     * a single burst along with the hardware ids, then sets only the persisted values the radio
+     * doesn't already hold.
+     *
+     * @param restore   true if the radio is being restored after a reconnect.  In this case the
+     *                  last known values are the targets and the hardware ids, which can't have
+     *                  changed, are not requested again.
      */
-    private void initializeRadio() {
+    private void initializeRadio(boolean restore) {
         this.mPowerStatus.set(PowerStatus.INITIALIZING);
 
         // sleep for 200ms after receiving power on confirmation
@@ -729,40 +1422,68 @@ public class HDRadio {
             Timber.w(e);
         }
 
-        // Retreived persistent values
-        this.mSeekAll.set(this.mRadioPreferences.getBoolean("radiolib_pref_key_seekall", true));
-        int frequency = this.mRadioPreferences.getInt("radiolib_pref_key_frequency", 879);
-        RadioBand band = RadioBand.valueOf(this.mRadioPreferences
-                .getString("radiolib_pref_key_band", "FM"));
-        int subch = this.mRadioPreferences.getInt("radiolib_pref_key_subchannel", 0);
-        TuneInfo savedTune = new TuneInfo(band, frequency, subch);
-        int volume = this.mRadioPreferences.getInt("radiolib_pref_key_volume", 50);
-        int bass = this.mRadioPreferences.getInt("radiolib_pref_key_bass", 10);
-        int treble = this.mRadioPreferences.getInt("radiolib_pref_key_treble", 10);
+        TuneInfo savedTune;
+        int volume;
+        int bass;
+        int treble;
+        if (restore) {
+            // Restore the last known values held in RadioValues
+            TuneInfo lastTune = this.mRadioValues.mTune.get();
+            savedTune = new TuneInfo(lastTune.getBand(), lastTune.getFrequency(),
+                    lastTune.getSubChannel());
+            volume = this.mRadioValues.mVolume.get();
+            bass = this.mRadioValues.mBass.get();
+            treble = this.mRadioValues.mTreble.get();
+        } else {
+            // Retreive persistent values from the state journal.  Preferences written by earlier
+            // versions of the library are used for anything the journal doesn't have yet.
+            SparseIntArray state = this.mStateJournal.replay();
+            this.mSeekAll.set((state.indexOfKey(StateJournal.KEY_SEEKALL) >= 0) ?
+                    state.get(StateJournal.KEY_SEEKALL) != 0 :
+                    this.mRadioPreferences.getBoolean("radiolib_pref_key_seekall", true));
+            savedTune = (state.indexOfKey(StateJournal.KEY_TUNE) >= 0) ?
+                    StateJournal.unpackTune(state.get(StateJournal.KEY_TUNE)) : null;
+            if (savedTune == null) {
+                int frequency = this.mRadioPreferences.getInt("radiolib_pref_key_frequency", 879);
+                RadioBand band = RadioBand.valueOf(this.mRadioPreferences
+                        .getString("radiolib_pref_key_band", "FM"));
+                int subch = this.mRadioPreferences.getInt("radiolib_pref_key_subchannel", 0);
+                savedTune = new TuneInfo(band, frequency, subch);
+            }
+            volume = state.get(StateJournal.KEY_VOLUME,
+                    this.mRadioPreferences.getInt("radiolib_pref_key_volume", 50));
+            bass = state.get(StateJournal.KEY_BASS,
+                    this.mRadioPreferences.getInt("radiolib_pref_key_bass", 10));
+            treble = state.get(StateJournal.KEY_TREBLE,
+                    this.mRadioPreferences.getInt("radiolib_pref_key_treble", 10));
+        }
+
+        ArrayList<byte[]> burst = new ArrayList<>();
 
         // TODO: Temporarily turn off RF Modulator
-        this.mControlHandler.post(new Runnable() {
-            @Override
-            public void run() {
-                HDRadio.this.sendRadioCommand(RadioCommand.RF_MODULATOR, RadioOperation.SET, 881);
-            }
-        });
+        burst.add(RadioPacketBuilder.encodeInt(RadioCommand.RF_MODULATOR, 881));
 
-        this.mController.tune(savedTune);
-        this.mController.setVolume(volume);
-        this.mController.setBass(bass);
-        this.mController.setTreble(treble);
+        this.mInitTracker.start();
+        for (RadioCommand command : InitPlanner.QUERIED_COMMANDS) {
+            burst.add(RadioPacketBuilder.encodeGet(command));
+            this.mInitTracker.expect(command);
+        }
 
-        if (BuildConfig.DEBUG) {
-            this.mController.requestUpdate(RadioCommand.HD_ENABLE_HD_TUNER);
-            this.mController.requestUpdate(RadioCommand.COMPRESSION);
-            this.mController.requestUpdate(RadioCommand.RF_MODULATOR);
+        if (!restore) {
+            if (BuildConfig.DEBUG) {
+                burst.add(RadioPacketBuilder.encodeGet(RadioCommand.HD_ENABLE_HD_TUNER));
+                burst.add(RadioPacketBuilder.encodeGet(RadioCommand.COMPRESSION));
+                burst.add(RadioPacketBuilder.encodeGet(RadioCommand.RF_MODULATOR));
+            }
+            burst.add(RadioPacketBuilder.encodeGet(RadioCommand.HD_UNIQUE_ID));
+            burst.add(RadioPacketBuilder.encodeGet(RadioCommand.HD_HW_VERSION));
+            this.mInitTracker.expect(RadioCommand.HD_UNIQUE_ID);
+            this.mInitTracker.expect(RadioCommand.HD_HW_VERSION);
         }
-        this.mController.requestUpdate(RadioCommand.HD_UNIQUE_ID);
-        this.mController.requestUpdate(RadioCommand.HD_HW_VERSION);
-        this.mController.requestUpdate(RadioCommand.HD_API_VERSION);
-    }
 
+        this.mInitPlanner.start(savedTune, volume, bass, treble);
+        this.sendRadioBurst(burst);
+    }
 
     /**
      * Powers off the Radio.  Although it should only be called from mControlHandler's looper,
@@ -785,40 +1506,27 @@ public class HDRadio {
                     PowerStatus.POWERING_OFF)) {
 
                 // Remove potential pending callbacks
-                this.mControlHandler.removeCallbacks(mRequestSignalRunnable);
-                this.mControlHandler.removeCallbacks(mSetSubchannelRunnable);
-
-                // mute before power off
-                this.mRadioDriver.raiseRts();
-                try {
-                    Thread.sleep(50);
-                } catch (InterruptedException e) {
-                    Timber.w(e);
-                }
+                this.mSignalPoller.stop();
+                this.mSubchannelAcquirer.cancel();
+                this.mInitPlanner.cancel();
+                this.mInitTracker.cancel();
+                this.mVolumeRamp.cancel();
+                this.clearPendingValues();
+                TuneInfo scanOrigin = this.mBandScanner.cancel(false);
 
-                this.mRadioDriver.clearDtr();   // DTR off = Power off
-                try {
-                    Thread.sleep(50);
-                } catch (InterruptedException e) {
-                    Timber.w(e);
-                }
-
-                this.mRadioDriver.clearRts();
+                // mute before power off (DTR off = Power off), then unmute
+                this.mRadioDriver.runControlSequence(POWER_OFF_SEQUENCE);
 
                 // Because the radio won't send a power off reply, set the power off variable to false
                 this.mRadioValues.mPower.set(false);
 
-                // Persist these values
-                TuneInfo currentTune = this.mRadioValues.mTune.get();
-                this.mRadioPreferences.edit()
-                        .putBoolean("radiolib_pref_key_seekall", this.mSeekAll.get())
-                        .putInt("radiolib_pref_key_frequency", currentTune.getFrequency())
-                        .putString("radiolib_pref_key_band", currentTune.getBand().toString())
-                        .putInt("radiolib_pref_key_subchannel", currentTune.getSubChannel())
-                        .putInt("radiolib_pref_key_volume", this.mRadioValues.mVolume.get())
-                        .putInt("radiolib_pref_key_bass", this.mRadioValues.mBass.get())
-                        .putInt("radiolib_pref_key_treble", this.mRadioValues.mTreble.get())
-                        .apply();
+                // Values are journaled as they are confirmed, so only the tune from before an
+                // interrupted scan needs recording before the journal is written out
+                if (scanOrigin != null) {
+                    this.mStateJournal.record(StateJournal.KEY_TUNE,
+                            StateJournal.packTune(scanOrigin));
+                }
+                this.mStateJournal.flush();
 
                 this.mPowerStatus.set(PowerStatus.POWERED_OFF);
 
@@ -831,56 +1539,349 @@ public class HDRadio {
     }
 
     /**
-     * Builds a radio message and writes it to the HD Radio's serial interface.  This method is
-     * NOT synchonized, as it should only be called in mControlHandler's looper.
-     *
-     * @param command       The command to send
-     * @param operation     The associated operation (should be GET or SET)
-     * @param data          Accompanying data (can be null for GET commands)
+     * Journals values that are restored at power on as the radio confirms them.
      */
-    private void sendRadioCommand(RadioCommand command, RadioOperation operation, Object data) {
-        byte[] radioPacket = RadioPacketBuilder.buildRadioPacket(command, operation, data);
-        if (radioPacket != null && this.mRadioDriver.isOpen()) {
+    private void recordState(RadioCommand command) {
+        // Replies during initialization are the radio's values before the journaled ones
+        // are restored
+        if (this.mPowerStatus.get() == PowerStatus.INITIALIZING) {
+            return;
+        }
 
-            this.mRadioDriver.writeData(radioPacket);
+        switch (command) {
+            case TUNE:
+            case HD_SUBCHANNEL:
+                // Channels visited while scanning aren't worth restoring
+                if (!this.mBandScanner.isScanning()) {
+                    this.mStateJournal.record(StateJournal.KEY_TUNE,
+                            StateJournal.packTune(this.mRadioValues.mTune.get()));
+                }
+                break;
+            case VOLUME: {
+                // The steps of a ramp aren't worth restoring, an interrupted ramp restores its
+                // target instead
+                int target = this.mVolumeRamp.getTarget();
+                this.mStateJournal.record(StateJournal.KEY_VOLUME,
+                        (target >= 0) ? target : this.mRadioValues.mVolume.get());
+                break;
+            }
+            case BASS:
+                this.mStateJournal.record(StateJournal.KEY_BASS, this.mRadioValues.mBass.get());
+                break;
+            case TREBLE:
+                this.mStateJournal.record(StateJournal.KEY_TREBLE,
+                        this.mRadioValues.mTreble.get());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Stores station values received from the radio in the station database.  Called from the
+     * data handler, the write itself is done on the storage handler.
+     */
+    private void updateStationDatabase(RadioCommand command) {
+        // Values received while a tune is pending may belong to the previous station
+        if (this.mStationDatabase == null || this.mBandScanner.isScanning() ||
+                this.mDataHandler.isTunePending()) {
+            return;
+        }
+
+        final TuneInfo tune = this.mRadioValues.mTune.get();
+        final RadioBand band = tune.getBand();
+        final int frequency = tune.getFrequency();
+        Runnable update;
+        switch (command) {
+            case SIGNAL_STRENGTH: {
+                final int signal = this.mRadioValues.mSignalStrength.get();
+                final boolean hdActive = this.mRadioValues.mHdActive.get();
+                update = new Runnable() {
+                    @Override
+                    public void run() {
+                        StationDatabase database = HDRadio.this.mStationDatabase;
+                        if (database != null) {
+                            database.recordSignal(band, frequency, signal, hdActive);
+                        }
+                    }
+                };
+                break;
+            }
+            case HD_CALLSIGN: {
+                final String callsign = this.mRadioValues.mHdCallsign.get();
+                if (callsign.isEmpty()) {
+                    return;
+                }
+                update = new Runnable() {
+                    @Override
+                    public void run() {
+                        StationDatabase database = HDRadio.this.mStationDatabase;
+                        if (database != null) {
+                            database.setCallsign(band, frequency, callsign);
+                        }
+                    }
+                };
+                break;
+            }
+            case HD_SUBCHANNEL_COUNT: {
+                final int count = this.mRadioValues.mHdSubchannelCount.get();
+                update = new Runnable() {
+                    @Override
+                    public void run() {
+                        StationDatabase database = HDRadio.this.mStationDatabase;
+                        if (database != null) {
+                            database.setSubchannelCount(band, frequency, count);
+                        }
+                    }
+                };
+                break;
+            }
+            default:
+                return;
+        }
+
+        this.mStorageHandler.post(update);
+    }
+
+    /**
+     * Sets the requested value of a volume, bass or treble overlay and schedules its write
+     */
+    private void requestValue(PendingValue pending, int value) {
+        if (pending.set(value)) {
+            this.postValueFlush(pending);
+        }
+    }
+
+    /**
+     * Adjusts a volume, bass or treble overlay from its latest requested value.  Adjustments
+     * made before the previous one is written are sent as a single SET.
+     */
+    private void adjustValue(PendingValue pending, int delta) {
+        if (pending.adjust(delta)) {
+            this.postValueFlush(pending);
+        }
+    }
+
+    private void postValueFlush(final PendingValue pending) {
+        this.mControlHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                int value = pending.takeFlush();
+                if (value >= 0) {
+                    HDRadio.this.sendRadioCommand(pending.getCommand(), value);
+                }
+            }
+        });
+    }
+
+    private void reconcileValue(RadioCommand command) {
+        switch (command) {
+            case VOLUME:
+                this.mPendingVolume.onConfirmed(this.mRadioValues.mVolume.get());
+                break;
+            case BASS:
+                this.mPendingBass.onConfirmed(this.mRadioValues.mBass.get());
+                break;
+            case TREBLE:
+                this.mPendingTreble.onConfirmed(this.mRadioValues.mTreble.get());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void clearPendingValues() {
+        this.mPendingVolume.clear();
+        this.mPendingBass.clear();
+        this.mPendingTreble.clear();
+    }
+
+    /**
+     * Accumulates tune up/down presses.  Presses arriving while the control handler is busy are
+     * collapsed into a single direct tune to the computed target frequency.
+     */
+    private void addTuneSteps(int steps) {
+        synchronized (TUNE_STEP_LOCK) {
+            this.mPendingTuneSteps += steps;
+            this.mTuneStepGeneration = this.mTuneGeneration.incrementAndGet();
+            if (!this.mTuneStepScheduled) {
+                this.mTuneStepScheduled = true;
+                this.mControlHandler.post(this.mTuneStepRunnable);
+            }
+        }
+    }
+
+    /**
+     * Sends the accumulated tune steps.  Steps are counted from the previous step target while
+     * the radio may not have confirmed it yet, otherwise from the current tune.
+     */
+    private void sendTuneSteps() {
+        int steps;
+        TuneInfo base;
+        synchronized (TUNE_STEP_LOCK) {
+            steps = this.mPendingTuneSteps;
+            this.mPendingTuneSteps = 0;
+            this.mTuneStepScheduled = false;
+
+            if (steps != 0 && this.isTuneSuperseded(this.mTuneStepGeneration)) {
+                return;
+            }
+
+            base = this.mRadioValues.mTune.get();
+            if (this.mLastStepTarget != null && this.mLastStepTarget.getBand() == base.getBand() &&
+                    SystemClock.elapsedRealtime() - this.mLastStepTime < STEP_TARGET_TIMEOUT) {
+                base = this.mLastStepTarget;
+            }
+        }
+
+        if (steps == 0) {
+            return;
+        }
+
+        RadioBand band = base.getBand();
+        int frequency = this.mBandPlan.step(band, base.getFrequency(), steps);
+        TuneInfo target = new TuneInfo(band, frequency, 0);
+
+        synchronized (TUNE_STEP_LOCK) {
+            this.mLastStepTarget = target;
+            this.mLastStepTime = SystemClock.elapsedRealtime();
+        }
+
+        // Remove pending Signal Requests
+        this.mSignalPoller.stop();
+        this.mSubchannelAcquirer.cancel();
+        this.mBandScanner.cancel(false);
+        this.mDataHandler.expectTune(target);
+        this.sendTuneCommand(target);
+    }
+
+    private void clearStepTarget() {
+        synchronized (TUNE_STEP_LOCK) {
+            this.mLastStepTarget = null;
+        }
+    }
+
+    /**
+     * @return  true if a newer tune, seek or tune step was requested after the one with the
+     *          given generation, in which case the older request should not be sent
+     */
+    private boolean isTuneSuperseded(int generation) {
+        if (generation != this.mTuneGeneration.get()) {
+            this.mMetrics.recordSupersededTune();
+            return true;
+        }
+        return false;
+    }
+
+    private void deliverUpdateBatch(final UpdateBatch batch) {
+        this.mUpdateBatches.remove(batch);
+        this.mEventHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                batch.deliver();
+            }
+        });
+    }
+
+    /**
+     * Writes prebuilt packets to the radio in as few writes as possible, sleeping once after
+     * each write rather than after each packet.  Used for requests that don't depend on one
+     * another.  Writes hold at most MAX_BURST_PACKETS packets, to keep each burst within what
+     * the radio can buffer.
+     */
+    private void sendRadioBurst(ArrayList<byte[]> packets) {
+        int start = 0;
+        while (start < packets.size()) {
+            int end = Math.min(start + MAX_BURST_PACKETS, packets.size());
+
+            int length = 0;
+            for (int i = start; i < end; i++) {
+                if (packets.get(i) != null) {
+                    length += packets.get(i).length;
+                }
+            }
+
+            if (length == 0 || !this.mRadioDriver.isOpen()) {
+                Timber.i("Invalid Radio Burst, cannot send");
+                return;
+            }
+
+            ByteBuffer burst = ByteBuffer.allocate(length);
+            for (int i = start; i < end; i++) {
+                if (packets.get(i) != null) {
+                    burst.put(packets.get(i));
+                }
+            }
+            burst.flip();
+            this.mRadioDriver.write(burst);
+            int frames = 0;
+            for (int i = start; i < end; i++) {
+                if (packets.get(i) != null) {
+                    this.mFlightRecorder.recordSent(packets.get(i));
+                    frames++;
+                }
+            }
+            this.mLinkMetrics.recordSent(length, frames);
 
-            // Always sleep between commands
             try {
-                Thread.sleep(POST_COMMAND_DELAY);
+                Thread.sleep(this.getCommandDelay());
             } catch (InterruptedException e) {
                 Timber.w(e);
             }
-        } else {
-            Timber.i("Invalid Radio Packet, cannot send");
+            start = end;
         }
     }
 
-    private class SetSubchannelRunnable implements Runnable {
+    /**
+     * Time to wait after each write.  The delay grows up to double the normal delay as link
+     * quality drops, giving the radio more time to answer when packets are being corrupted.
+     */
+    private long getCommandDelay() {
+        int quality = this.mLinkMetrics.getLinkQuality();
+        return POST_COMMAND_DELAY + POST_COMMAND_DELAY * (100 - quality) / 100;
+    }
+
+    private void sendRadioRequest(RadioCommand command) {
+        this.sendRadioPacket(RadioPacketBuilder.encodeGet(command));
+    }
 
-        private int mRequestedSubchannel = 0 ;
-        private int mRequestCount = 0;
+    private void sendRadioCommand(RadioCommand command, int value) {
+        this.sendRadioPacket(RadioPacketBuilder.encodeInt(command, value));
+    }
 
-        SetSubchannelRunnable() {}
+    private void sendRadioCommand(RadioCommand command, boolean value) {
+        this.sendRadioPacket(RadioPacketBuilder.encodeBool(command, value));
+    }
 
-        void setSubchannel(int subchannel) {
-            this.mRequestedSubchannel = subchannel;
-            this.mRequestCount = 0;
-            HDRadio.this.mControlHandler.post(this);
-        }
+    private void sendTuneCommand(TuneInfo tuneInfo) {
+        this.sendRadioPacket(RadioPacketBuilder.encodeTune(tuneInfo));
+    }
 
+    private void sendSeekCommand(SeekData seekData) {
+        this.sendRadioPacket(RadioPacketBuilder.encodeSeek(seekData));
+    }
 
-        @Override
-        public void run() {
-            if (this.mRequestedSubchannel > 0 &&
-                    this.mRequestedSubchannel != HDRadio.this.mRadioValues.mHdSubchannel.get()) {
-                HDRadio.this.sendRadioCommand(RadioCommand.HD_SUBCHANNEL, RadioOperation.SET, mRequestedSubchannel);
-                mRequestCount++;
+    /**
+     * Writes an encoded radio packet to the HD Radio's serial interface.  This method is
+     * NOT synchonized, as it should only be called in mControlHandler's looper.
+     *
+     * @param radioPacket   The packet built by RadioPacketBuilder, may be null if encoding failed
+     */
+    private void sendRadioPacket(byte[] radioPacket) {
+        if (radioPacket != null && this.mRadioDriver.isOpen()) {
 
-                // Send a new request every .5 seconds, up to 10 times
-                if (mRequestCount < 10) {
-                    HDRadio.this.mControlHandler.postDelayed(this, 500);
-                }
+            this.mRadioDriver.write(ByteBuffer.wrap(radioPacket));
+            this.mFlightRecorder.recordSent(radioPacket);
+            this.mLinkMetrics.recordSent(radioPacket.length, 1);
+
+            // Always sleep between commands
+            try {
+                Thread.sleep(this.getCommandDelay());
+            } catch (InterruptedException e) {
+                Timber.w(e);
             }
+        } else {
+            Timber.i("Invalid Radio Packet, cannot send");
         }
     }
 
@@ -0,0 +1,165 @@
+package com.arksine.hdradiolib;
+
+import android.os.Handler;
+import android.support.annotation.NonNull;
+
+import com.arksine.hdradiolib.enums.RadioCommand;
+
+import timber.log.Timber;
+
+/**
+ * Plans the commands sent after power on.  The current tune, volume, bass and treble are queried
+ * in a single burst, and once the replies arrive (or the query times out) only the values that
+ * differ from the targets are set.  Values that weren't reported are always set.
+ *
+ * All methods except onReply must be called from the control handler's looper.
+ */
+
+class InitPlanner {
+
+    private static final long QUERY_TIMEOUT = 500;
+
+    static final RadioCommand[] QUERIED_COMMANDS = {
+            RadioCommand.TUNE,
+            RadioCommand.VOLUME,
+            RadioCommand.BASS,
+            RadioCommand.TREBLE
+    };
+
+    /**
+     * Implemented by the HDRadio class to write requests to the radio
+     */
+    interface InitRequester {
+        void tune(TuneInfo tuneInfo);
+        void selectSubchannel(int subchannel);
+        void setValue(RadioCommand command, int value);
+        void onPlanComplete();
+    }
+
+    private final Handler mHandler;
+    private final RadioValues mRadioValues;
+    private final RadioMetrics mMetrics;
+    private final InitRequester mRequester;
+
+    private boolean mActive = false;
+    private int mAwaiting = 0;    // bits by RadioCommand ordinal
+    private TuneInfo mTargetTune;
+    private int mTargetVolume;
+    private int mTargetBass;
+    private int mTargetTreble;
+
+    private final Runnable mTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Timber.d("Init query timed out, setting unreported values");
+            InitPlanner.this.apply();
+        }
+    };
+
+    InitPlanner(@NonNull Handler handler, @NonNull RadioValues values,
+                @NonNull RadioMetrics metrics, @NonNull InitRequester requester) {
+        this.mHandler = handler;
+        this.mRadioValues = values;
+        this.mMetrics = metrics;
+        this.mRequester = requester;
+    }
+
+    /**
+     * Starts waiting for replies to the query burst.  The burst itself is written by the caller.
+     */
+    void start(@NonNull TuneInfo tune, int volume, int bass, int treble) {
+        this.mTargetTune = tune;
+        this.mTargetVolume = volume;
+        this.mTargetBass = bass;
+        this.mTargetTreble = treble;
+
+        this.mAwaiting = 0;
+        for (RadioCommand command : QUERIED_COMMANDS) {
+            this.mAwaiting |= 1 << command.ordinal();
+        }
+
+        this.mActive = true;
+        this.mHandler.removeCallbacks(this.mTimeoutRunnable);
+        this.mHandler.postDelayed(this.mTimeoutRunnable, QUERY_TIMEOUT);
+    }
+
+    void cancel() {
+        this.mActive = false;
+        this.mHandler.removeCallbacks(this.mTimeoutRunnable);
+    }
+
+    /**
+     * Called from the data handler after a reply has been parsed and stored
+     */
+    void onReply(final RadioCommand command) {
+        switch (command) {
+            case TUNE:
+            case VOLUME:
+            case BASS:
+            case TREBLE:
+                this.mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        InitPlanner.this.onQueryReply(command);
+                    }
+                });
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onQueryReply(RadioCommand command) {
+        if (!this.mActive) {
+            return;
+        }
+
+        this.mAwaiting &= ~(1 << command.ordinal());
+        if (this.mAwaiting == 0) {
+            this.apply();
+        }
+    }
+
+    private boolean isReported(RadioCommand command) {
+        return (this.mAwaiting & (1 << command.ordinal())) == 0;
+    }
+
+    private void apply() {
+        if (!this.mActive) {
+            return;
+        }
+        this.cancel();
+
+        int sent = 0;
+        int skipped = 0;
+
+        TuneInfo current = this.mRadioValues.mTune.get();
+        if (this.isReported(RadioCommand.TUNE) && current.getBand() == this.mTargetTune.getBand()
+                && current.getFrequency() == this.mTargetTune.getFrequency()) {
+            skipped++;
+            if (this.mTargetTune.getSubChannel() > 0) {
+                this.mRequester.selectSubchannel(this.mTargetTune.getSubChannel());
+            }
+        } else {
+            sent++;
+            this.mRequester.tune(this.mTargetTune);
+        }
+
+        int[] targets = {this.mTargetVolume, this.mTargetBass, this.mTargetTreble};
+        RadioCommand[] commands = {RadioCommand.VOLUME, RadioCommand.BASS, RadioCommand.TREBLE};
+        int[] currentValues = {this.mRadioValues.mVolume.get(), this.mRadioValues.mBass.get(),
+                this.mRadioValues.mTreble.get()};
+        for (int i = 0; i < commands.length; i++) {
+            if (this.isReported(commands[i]) && currentValues[i] == targets[i]) {
+                skipped++;
+            } else {
+                sent++;
+                this.mRequester.setValue(commands[i], targets[i]);
+            }
+        }
+
+        Timber.d("Init plan: %d values set, %d already current", sent, skipped);
+        this.mMetrics.recordInitPlan(sent, skipped);
+        this.mRequester.onPlanComplete();
+    }
+}
@@ -0,0 +1,159 @@
+package com.arksine.hdradiolib;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.arksine.hdradiolib.enums.RadioCommand;
+
+import timber.log.Timber;
+
+/**
+ * Tracks the replies required to complete power on initialization.  Each request sent during
+ * initialization that the radio must answer is registered with expect(), and initialization
+ * completes once every expected reply has arrived and no more requests will be added.  If the
+ * deadline passes first, initialization completes anyway when the radio has answered at least
+ * one request, otherwise it fails.  Either way the power status never stays INITIALIZING.
+ *
+ * All methods except onReply must be called from the control handler's looper.  onReply may be
+ * called from any thread.
+ */
+
+class InitTracker {
+
+    private static final long INIT_DEADLINE = 4000;
+
+    interface InitEvents {
+        /**
+         * @param missing   bits (by RadioCommand ordinal) of the replies that never arrived
+         */
+        void onInitComplete(int missing);
+        void onInitFailed();
+    }
+
+    private final Handler mHandler;
+    private final RadioMetrics mMetrics;
+    private final InitEvents mCallbacks;
+
+    // Read by onReply() on the thread that parsed the reply
+    private volatile boolean mActive = false;
+    private boolean mSealed = false;
+    private int mOutstanding = 0;    // bits by RadioCommand ordinal
+    private int mRepliesReceived = 0;
+    private long mStartTime = 0;
+
+    private final Runnable mDeadlineRunnable = new Runnable() {
+        @Override
+        public void run() {
+            InitTracker.this.onDeadline();
+        }
+    };
+
+    InitTracker(@NonNull Handler handler, @NonNull RadioMetrics metrics,
+                @NonNull InitEvents callbacks) {
+        this.mHandler = handler;
+        this.mMetrics = metrics;
+        this.mCallbacks = callbacks;
+    }
+
+    void start() {
+        this.mActive = true;
+        this.mSealed = false;
+        this.mOutstanding = 0;
+        this.mRepliesReceived = 0;
+        this.mStartTime = SystemClock.elapsedRealtime();
+        this.mMetrics.resetInitSteps();
+
+        this.mHandler.removeCallbacks(this.mDeadlineRunnable);
+        this.mHandler.postDelayed(this.mDeadlineRunnable, INIT_DEADLINE);
+    }
+
+    boolean isActive() {
+        return this.mActive;
+    }
+
+    /**
+     * Registers a request that must be answered before initialization is complete
+     */
+    void expect(RadioCommand command) {
+        if (this.mActive) {
+            this.mOutstanding |= 1 << command.ordinal();
+        }
+    }
+
+    /**
+     * Called once all initialization requests have been registered
+     */
+    void seal() {
+        if (this.mActive) {
+            this.mSealed = true;
+            this.checkComplete();
+        }
+    }
+
+    void cancel() {
+        this.mActive = false;
+        this.mHandler.removeCallbacks(this.mDeadlineRunnable);
+    }
+
+    /**
+     * Called from the data handler after a reply has been parsed and stored
+     */
+    void onReply(final RadioCommand command) {
+        if (!this.mActive) {
+            return;
+        }
+
+        this.mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                InitTracker.this.onStepReply(command);
+            }
+        });
+    }
+
+    private void onStepReply(RadioCommand command) {
+        if (!this.mActive) {
+            return;
+        }
+
+        this.mRepliesReceived++;
+        int bit = 1 << command.ordinal();
+        if ((this.mOutstanding & bit) != 0) {
+            this.mOutstanding &= ~bit;
+            this.mMetrics.recordInitStep(command, SystemClock.elapsedRealtime() - this.mStartTime);
+            this.checkComplete();
+        }
+    }
+
+    private void checkComplete() {
+        if (this.mSealed && this.mOutstanding == 0) {
+            this.finish();
+        }
+    }
+
+    private void onDeadline() {
+        if (!this.mActive) {
+            return;
+        }
+
+        if (this.mRepliesReceived == 0) {
+            Timber.w("No replies received during initialization");
+            this.cancel();
+            this.mCallbacks.onInitFailed();
+            return;
+        }
+
+        Timber.w("Initialization deadline reached, missing replies: %s",
+                Integer.toHexString(this.mOutstanding));
+        this.finish();
+    }
+
+    private void finish() {
+        int missing = this.mOutstanding;
+        this.cancel();
+        this.mMetrics.recordInitComplete(SystemClock.elapsedRealtime() - this.mStartTime,
+                Integer.bitCount(missing));
+        this.mCallbacks.onInitComplete(missing);
+    }
+}
@@ -0,0 +1,237 @@
+package com.arksine.hdradiolib;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Health of the serial link to the radio: counts of each way a received packet can be rejected,
+ * throughput, and a link quality score.  Counters are updated without locks from the parsing
+ * and control threads, and may be read from any thread.
+ *
+ * The quality score is 100 minus the percentage of recent packets that were rejected, averaged
+ * over roughly the last 16 packets, so it recovers once the link is clean again.
+ */
+
+public class LinkMetrics {
+
+    // Fixed point scale of the rejected packet average, and its smoothing shift (1/16)
+    private static final int ERROR_SCALE = 10000;
+    private static final int ERROR_SHIFT = 4;
+
+    private volatile String mDriverName = "";
+    private volatile long mStartTime = SystemClock.elapsedRealtime();
+
+    private final AtomicLong mBytesReceived = new AtomicLong(0);
+    private final AtomicLong mBytesSent = new AtomicLong(0);
+    private final AtomicLong mFramesReceived = new AtomicLong(0);
+    private final AtomicLong mFramesSent = new AtomicLong(0);
+
+    private final AtomicLong mChecksumFailures = new AtomicLong(0);
+    private final AtomicLong mResyncs = new AtomicLong(0);
+    private final AtomicLong mZeroLengthPackets = new AtomicLong(0);
+    private final AtomicLong mNonReplies = new AtomicLong(0);
+    private final AtomicLong mUnknownCommands = new AtomicLong(0);
+    private final AtomicLong mShortPackets = new AtomicLong(0);
+    private final AtomicLong mStrayBytes = new AtomicLong(0);
+    private final AtomicLong mParseErrors = new AtomicLong(0);
+
+    // Frames received in the current second, and in the last complete one
+    private final AtomicLong mRateSecond = new AtomicLong(0);
+    private final AtomicInteger mRateCount = new AtomicInteger(0);
+    private final AtomicInteger mFramesPerSecond = new AtomicInteger(0);
+
+    private final AtomicInteger mErrorAverage = new AtomicInteger(0);
+
+    /**
+     * Immutable copy of the link metrics
+     */
+    public static final class Snapshot {
+        public final String driverName;
+        public final long elapsed;
+        public final long bytesReceived;
+        public final long bytesSent;
+        public final long framesReceived;
+        public final long framesSent;
+        public final int framesPerSecond;
+        public final long checksumFailures;
+        public final long resyncs;
+        public final long zeroLengthPackets;
+        public final long nonReplies;
+        public final long unknownCommands;
+        public final long shortPackets;
+        public final long strayBytes;
+        public final long parseErrors;
+        public final int linkQuality;
+
+        private Snapshot(LinkMetrics metrics) {
+            this.driverName = metrics.mDriverName;
+            this.elapsed = SystemClock.elapsedRealtime() - metrics.mStartTime;
+            this.bytesReceived = metrics.mBytesReceived.get();
+            this.bytesSent = metrics.mBytesSent.get();
+            this.framesReceived = metrics.mFramesReceived.get();
+            this.framesSent = metrics.mFramesSent.get();
+            this.framesPerSecond = metrics.getFramesPerSecond();
+            this.checksumFailures = metrics.mChecksumFailures.get();
+            this.resyncs = metrics.mResyncs.get();
+            this.zeroLengthPackets = metrics.mZeroLengthPackets.get();
+            this.nonReplies = metrics.mNonReplies.get();
+            this.unknownCommands = metrics.mUnknownCommands.get();
+            this.shortPackets = metrics.mShortPackets.get();
+            this.strayBytes = metrics.mStrayBytes.get();
+            this.parseErrors = metrics.mParseErrors.get();
+            this.linkQuality = metrics.getLinkQuality();
+        }
+
+        /**
+         * @return  Packets rejected for any reason
+         */
+        public long getRejectedPackets() {
+            return this.checksumFailures + this.resyncs + this.zeroLengthPackets +
+                    this.nonReplies + this.unknownCommands + this.shortPackets +
+                    this.parseErrors;
+        }
+    }
+
+    /**
+     * Starts counting for a newly attached driver
+     */
+    void attachDriver(String driverName) {
+        if (driverName.equals(this.mDriverName)) {
+            return;
+        }
+        this.mDriverName = driverName;
+        this.reset();
+    }
+
+    /**
+     * Resets all counters and the quality score
+     */
+    public void reset() {
+        this.mStartTime = SystemClock.elapsedRealtime();
+        this.mBytesReceived.set(0);
+        this.mBytesSent.set(0);
+        this.mFramesReceived.set(0);
+        this.mFramesSent.set(0);
+        this.mChecksumFailures.set(0);
+        this.mResyncs.set(0);
+        this.mZeroLengthPackets.set(0);
+        this.mNonReplies.set(0);
+        this.mUnknownCommands.set(0);
+        this.mShortPackets.set(0);
+        this.mStrayBytes.set(0);
+        this.mParseErrors.set(0);
+        this.mRateCount.set(0);
+        this.mFramesPerSecond.set(0);
+        this.mErrorAverage.set(0);
+    }
+
+    /**
+     * Clears the quality score, keeping the counters
+     */
+    void resetQuality() {
+        this.mErrorAverage.set(0);
+    }
+
+    void recordBytesReceived(int count) {
+        this.mBytesReceived.addAndGet(count);
+    }
+
+    void recordSent(int bytes, int frames) {
+        this.mBytesSent.addAndGet(bytes);
+        this.mFramesSent.addAndGet(frames);
+    }
+
+    /**
+     * Records the outcome of a received packet
+     *
+     * @param event     one of the FlightRecorder EVENT constants
+     * @param length    length of the packet, or the number of bytes for EVENT_STRAY_BYTES
+     */
+    void recordReceived(int event, int length) {
+        switch (event) {
+            case FlightRecorder.EVENT_FRAME:
+                this.mFramesReceived.incrementAndGet();
+                this.countFrame();
+                this.updateErrorAverage(0);
+                return;
+            case FlightRecorder.EVENT_CHECKSUM_ERROR:
+                this.mChecksumFailures.incrementAndGet();
+                break;
+            case FlightRecorder.EVENT_RESYNC:
+                this.mResyncs.incrementAndGet();
+                break;
+            case FlightRecorder.EVENT_ZERO_LENGTH:
+                this.mZeroLengthPackets.incrementAndGet();
+                break;
+            case FlightRecorder.EVENT_NOT_REPLY:
+                this.mNonReplies.incrementAndGet();
+                break;
+            case FlightRecorder.EVENT_UNKNOWN_COMMAND:
+                this.mUnknownCommands.incrementAndGet();
+                break;
+            case FlightRecorder.EVENT_SHORT_PACKET:
+                this.mShortPackets.incrementAndGet();
+                break;
+            case FlightRecorder.EVENT_PARSE_ERROR:
+                this.mParseErrors.incrementAndGet();
+                break;
+            case FlightRecorder.EVENT_STRAY_BYTES:
+                // Noise rather than a packet, it doesn't count towards the packet average
+                this.mStrayBytes.addAndGet(length);
+                return;
+            default:
+                return;
+        }
+        this.updateErrorAverage(ERROR_SCALE);
+    }
+
+    private void countFrame() {
+        long second = SystemClock.elapsedRealtime() / 1000;
+        long current = this.mRateSecond.get();
+        if (second != current && this.mRateSecond.compareAndSet(current, second)) {
+            int count = this.mRateCount.getAndSet(0);
+            this.mFramesPerSecond.set((second == current + 1) ? count : 0);
+        }
+        this.mRateCount.incrementAndGet();
+    }
+
+    private void updateErrorAverage(int sample) {
+        int average;
+        int updated;
+        do {
+            average = this.mErrorAverage.get();
+            updated = average + ((sample - average) >> ERROR_SHIFT);
+        } while (!this.mErrorAverage.compareAndSet(average, updated));
+    }
+
+    /**
+     * @return  Immutable copy of the current values
+     */
+    public Snapshot getSnapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * @return  Link quality from 0 (every recent packet rejected) to 100 (none rejected)
+     */
+    public int getLinkQuality() {
+        return 100 - (this.mErrorAverage.get() * 100 / ERROR_SCALE);
+    }
+
+    /**
+     * @return  Frames received in the last complete second
+     */
+    public int getFramesPerSecond() {
+        if (SystemClock.elapsedRealtime() / 1000 > this.mRateSecond.get() + 1) {
+            // Nothing received for over a second
+            return 0;
+        }
+        return this.mFramesPerSecond.get();
+    }
+
+    public String getDriverName() {
+        return this.mDriverName;
+    }
+}
@@ -0,0 +1,135 @@
+package com.arksine.hdradiolib;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.arksine.hdradiolib.enums.RadioCommand;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Overlay for a value the user adjusts in steps (volume, bass, treble).  Relative adjustments
+ * are applied to the latest requested value rather than the last value the radio confirmed, so
+ * several quick presses each count.  Adjustments made before the previous request is written
+ * are coalesced into one write.  Replies reconcile the overlay: it is cleared once the radio
+ * confirms the requested value, or if the radio settles on a different value.
+ *
+ * Adjustments may come from any thread, replies from the data handler's thread.
+ */
+
+class PendingValue {
+
+    // Time allowed for the reply to the last write before the radio's value is accepted
+    private static final long RECONCILE_TIMEOUT = 1000;
+
+    private final RadioCommand mCommand;
+    private final AtomicInteger mConfirmed;
+    private final RadioMetrics mMetrics;
+    private final int mMin;
+    private final int mMax;
+
+    private boolean mPending = false;
+    private boolean mFlushScheduled = false;
+    private int mRequested = 0;
+    private long mLastWriteTime = 0;
+
+    PendingValue(@NonNull RadioCommand command, @NonNull AtomicInteger confirmed,
+                 @NonNull RadioMetrics metrics, int min, int max) {
+        this.mCommand = command;
+        this.mConfirmed = confirmed;
+        this.mMetrics = metrics;
+        this.mMin = min;
+        this.mMax = max;
+    }
+
+    RadioCommand getCommand() {
+        return this.mCommand;
+    }
+
+    /**
+     * Adjusts the requested value relative to the latest request.
+     *
+     * @return  true if a flush must be scheduled to write the value
+     */
+    synchronized boolean adjust(int delta) {
+        int base = this.mPending ? this.mRequested : this.mConfirmed.get();
+        int target = Math.max(this.mMin, Math.min(this.mMax, base + delta));
+        if (target == base) {
+            return false;
+        }
+        return this.request(target);
+    }
+
+    /**
+     * Sets the requested value.
+     *
+     * @return  true if a flush must be scheduled to write the value
+     */
+    synchronized boolean set(int value) {
+        return this.request(Math.max(this.mMin, Math.min(this.mMax, value)));
+    }
+
+    private boolean request(int value) {
+        this.mRequested = value;
+        this.mPending = true;
+        if (this.mFlushScheduled) {
+            return false;
+        }
+        this.mFlushScheduled = true;
+        return true;
+    }
+
+    /**
+     * Takes the value to write.  Adjustments after this call schedule a new flush.
+     *
+     * @return  the value to write, or -1 if nothing is pending
+     */
+    synchronized int takeFlush() {
+        this.mFlushScheduled = false;
+        if (!this.mPending) {
+            return -1;
+        }
+        this.mLastWriteTime = SystemClock.elapsedRealtime();
+        return this.mRequested;
+    }
+
+    /**
+     * Called when the radio reports the value
+     */
+    synchronized void onConfirmed(int value) {
+        if (!this.mPending) {
+            return;
+        }
+
+        if (value == this.mRequested) {
+            this.mPending = false;
+        } else if (!this.mFlushScheduled &&
+                SystemClock.elapsedRealtime() - this.mLastWriteTime > RECONCILE_TIMEOUT) {
+            // The radio has had time to apply the last write and reports something else, so
+            // its value wins
+            this.mMetrics.recordOverlayDivergence();
+            this.mPending = false;
+        }
+    }
+
+    /**
+     * Drops any outstanding request, for example when the radio powers off
+     */
+    synchronized void clear() {
+        this.mPending = false;
+    }
+
+    /**
+     * @return  the requested value if a request is pending, otherwise the confirmed value
+     */
+    synchronized int getRequested() {
+        return this.mPending ? this.mRequested : this.mConfirmed.get();
+    }
+
+    /**
+     * @return  difference between the requested and confirmed values, 0 when in sync
+     */
+    synchronized int getDivergence() {
+        return this.mPending ? this.mRequested - this.mConfirmed.get() : 0;
+    }
+}
@@ -0,0 +1,131 @@
+package com.arksine.hdradiolib;
+
+import com.arksine.hdradiolib.enums.RadioBand;
+import com.arksine.hdradiolib.enums.RadioCommand;
+
+import java.nio.ByteBuffer;
+
+import timber.log.Timber;
+
+/**
+ * Trace output for the radio protocol.  Tracing is compiled in only for debug builds, and at
+ * runtime is limited to the configured level.  Arguments are passed unformatted and are only
+ * rendered once both checks pass, so a disabled trace costs a field read per call.  Hex dumps
+ * are rendered into a per thread buffer that is reused between calls.
+ */
+
+public final class ProtocolTrace {
+
+    public static final int LEVEL_OFF = 0;
+    public static final int LEVEL_FRAMES = 1;     // command of each frame received
+    public static final int LEVEL_VALUES = 2;     // parsed values
+    public static final int LEVEL_BYTES = 3;      // hex dumps of all bytes sent and received
+
+    // Constant, so release builds can strip tracing entirely
+    private static final boolean ENABLED = BuildConfig.DEBUG;
+
+    private static volatile int sLevel = ENABLED ? LEVEL_BYTES : LEVEL_OFF;
+
+    private static final char[] HEXARRAY = "0123456789ABCDEF".toCharArray();
+    private static final ThreadLocal<StringBuilder> HEX_BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256 * 3);
+        }
+    };
+
+    private ProtocolTrace() {}
+
+    /**
+     * Sets the trace level.  Has no effect in release builds.
+     *
+     * @param level     one of the LEVEL constants
+     */
+    public static void setLevel(int level) {
+        sLevel = level;
+    }
+
+    public static int getLevel() {
+        return ENABLED ? sLevel : LEVEL_OFF;
+    }
+
+    static boolean isEnabled(int level) {
+        return ENABLED && sLevel >= level;
+    }
+
+    static void frame(RadioCommand command) {
+        if (ENABLED && sLevel >= LEVEL_FRAMES) {
+            Timber.d("Received Command: %s", command);
+        }
+    }
+
+    static void value(int value) {
+        if (ENABLED && sLevel >= LEVEL_VALUES) {
+            Timber.d("Value: %d", value);
+        }
+    }
+
+    static void value(boolean value) {
+        if (ENABLED && sLevel >= LEVEL_VALUES) {
+            Timber.d("Value: %b", value);
+        }
+    }
+
+    static void value(String value) {
+        if (ENABLED && sLevel >= LEVEL_VALUES) {
+            Timber.d("Length: %d \nConverted String: \n%s", value.length(), value);
+        }
+    }
+
+    static void value(RadioBand band, int frequency) {
+        if (ENABLED && sLevel >= LEVEL_VALUES) {
+            Timber.d("Value: %d %s", frequency, band);
+        }
+    }
+
+    static void value(int subchannel, String info) {
+        if (ENABLED && sLevel >= LEVEL_VALUES) {
+            Timber.d("Subchannel: %d Info: %s", subchannel, info);
+        }
+    }
+
+    static void escaped(byte b) {
+        if (ENABLED && sLevel >= LEVEL_BYTES) {
+            Timber.v("Escaped char: %#x", b);
+        }
+    }
+
+    static void hex(String label, byte[] bytes) {
+        if (ENABLED && sLevel >= LEVEL_BYTES) {
+            hex(label, ByteBuffer.wrap(bytes));
+        }
+    }
+
+    /**
+     * Dumps the bytes between a buffer's position and limit.  The buffer's position is not
+     * changed.
+     */
+    static void hex(String label, ByteBuffer buffer) {
+        if (ENABLED && sLevel >= LEVEL_BYTES) {
+            StringBuilder hex = HEX_BUFFER.get();
+            hex.setLength(0);
+            appendHex(hex, buffer);
+            Timber.d("%s:\n%s", label, hex);
+        }
+    }
+
+    /**
+     * Appends bytes as hex, 15 to a line
+     */
+    static void appendHex(StringBuilder out, ByteBuffer buffer) {
+        int start = buffer.position();
+        int length = buffer.remaining();
+        for (int j = 0; j < length; j++) {
+            int v = buffer.get(start + j) & 0xFF;
+            out.append(HEXARRAY[v >>> 4]);
+            out.append(HEXARRAY[v & 0x0F]);
+            // newline every 15 bytes (15th byte is 14th index)
+            out.append((j > 0 && j % 14 == 0) ? '\n' : ' ');
+        }
+    }
+}
@@ -3,6 +3,9 @@ package com.arksine.hdradiolib;
 import com.arksine.hdradiolib.enums.PowerStatus;
 import com.arksine.hdradiolib.enums.RadioCommand;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 /**
  * Interface for Application to control the HD Radio
  */
@@ -41,6 +44,30 @@ public interface RadioController {
 
     void requestUpdate(final RadioCommand command);
 
+    /**
+     * Requests a value, answering from the value already held if it was received from the radio
+     * within maxAge milliseconds.  Either way the result is delivered through the usual event
+     * callback.
+     */
+    void requestUpdate(final RadioCommand command, final long maxAge);
+
+    /**
+     * Receives the result of a bulk update request, on the EventHandler's thread
+     */
+    interface UpdateListener {
+        void onUpdatesComplete(Set<RadioCommand> received, Set<RadioCommand> missing);
+    }
+
+    /**
+     * Requests several values at once.  The requests are written in as few bursts as the radio
+     * tolerates, and the listener is notified once every reply has arrived or the request times
+     * out.  Values are also delivered through the usual event callbacks.
+     *
+     * @param commands  values to request
+     * @param listener  notified on completion, may be null
+     */
+    void requestUpdates(final EnumSet<RadioCommand> commands, final UpdateListener listener);
+
     // Value getters
     boolean getSeekAll();
     boolean isPoweredOn();
@@ -70,4 +97,10 @@ public interface RadioController {
     int getTreble();
     int getCompression();
 
+    /**
+     * @return  true if the value for the command was provided by the station cache when tuning,
+     *          and the radio has not yet sent a live value
+     */
+    boolean isCachedValue(RadioCommand command);
+
 }
@@ -3,14 +3,18 @@ package com.arksine.hdradiolib;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 
+import com.arksine.hdradiolib.drivers.BufferPool;
+import com.arksine.hdradiolib.drivers.ByteSink;
 import com.arksine.hdradiolib.enums.RadioBand;
 import com.arksine.hdradiolib.enums.RadioCommand;
 import com.arksine.hdradiolib.enums.RadioOperation;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicReference;
 
 import timber.log.Timber;
 
@@ -18,8 +22,19 @@ import timber.log.Timber;
  * Receives bytes of data from the HD Radio and parses it.
  */
 
-public class RadioDataHandler extends Handler {
+public class RadioDataHandler extends Handler implements ByteSink {
 
+    private static final int POOL_BUFFER_SIZE = 512;
+    private static final int POOL_MAX_BUFFERS = 8;
+
+    // Buffers lent to drivers, returned after parsing
+    private final BufferPool mBufferPool = new BufferPool(POOL_BUFFER_SIZE, POOL_MAX_BUFFERS);
+
+    // Parser state may be touched by the driver's read thread in inline mode, or by this
+    // handler's thread otherwise.  The lock is uncontended unless the mode is switched while
+    // data is flowing.
+    private final Object PARSE_LOCK = new Object();
+    private volatile boolean mInlineParsing = false;
 
     // Packet parsing vars
     private ByteBuffer mDataBuffer = ByteBuffer.allocate(256);
@@ -28,40 +43,162 @@ public class RadioDataHandler extends Handler {
     private boolean mIsEscaped = false;
     private boolean mIsLengthByte = false;
     private boolean mPacketStarted = false;
+    private int mStrayBytes = 0;
 
 
     private EventHandler mEventHandler;
     private RadioValues mRadioValues;
+    private RadioMetrics mMetrics;
+    private StationCache mStationCache;
+    private FlightRecorder mRecorder;
+    private LinkMetrics mLinkMetrics;
+
+    // The most recent direct tune written to the radio.  Tune replies that don't match it are
+    // late replies for superseded tunes, and are dropped until it is confirmed or expires.
+    private static final long EXPECTED_TUNE_TIMEOUT = 2000;
+    private final AtomicReference<ExpectedTune> mExpectedTune = new AtomicReference<>(null);
+
+    private static class ExpectedTune {
+        final TuneInfo target;
+        final long deadline;
+
+        ExpectedTune(TuneInfo target, long deadline) {
+            this.target = target;
+            this.deadline = deadline;
+        }
+    }
 
     /**
      * The interface below is a callback for the main HDRadio class, notifying it when
-     * a power on reply was recieved, and also when the radio has been tuned.
+     * a power on reply was recieved, and also when the radio has been tuned.  onReplyReceived
+     * is executed for every valid reply, after its value has been stored.
      */
     interface DataHandlerEvents {
         void onPowerOnReceived();
         void onTuneReceived();
-        void onInitComplete();
+        void onReplyReceived(RadioCommand command);
     }
 
     private DataHandlerEvents mDataHandlerEvents;
 
 
     RadioDataHandler(@NonNull Looper looper, @NonNull EventHandler eventHandler,
-                     @NonNull DataHandlerEvents handlerEvents, RadioValues values) {
+                     @NonNull DataHandlerEvents handlerEvents, RadioValues values,
+                     @NonNull RadioMetrics metrics, @NonNull StationCache stationCache,
+                     @NonNull FlightRecorder recorder, @NonNull LinkMetrics linkMetrics) {
         super(looper);
         this.mEventHandler = eventHandler;
         this.mDataHandlerEvents = handlerEvents;
         this.mRadioValues = values;
+        this.mMetrics = metrics;
+        this.mStationCache = stationCache;
+        this.mRecorder = recorder;
+        this.mLinkMetrics = linkMetrics;
+    }
+
+    /**
+     * When inline parsing is enabled, incoming bytes are decoded and RadioValues updated directly
+     * on the driver's read thread, skipping the hop to this handler's thread.  Listener callbacks
+     * are still handed off to the EventHandler.
+     */
+    void setInlineParsing(boolean inline) {
+        this.mInlineParsing = inline;
+    }
+
+    boolean isInlineParsing() {
+        return this.mInlineParsing;
+    }
+
+    /**
+     * Sets the tune the radio is expected to report next.  A null target (for example when
+     * seeking) accepts any tune reply.
+     */
+    void expectTune(TuneInfo target) {
+        if (target == null) {
+            this.mExpectedTune.set(null);
+        } else {
+            this.mExpectedTune.set(new ExpectedTune(target,
+                    SystemClock.elapsedRealtime() + EXPECTED_TUNE_TIMEOUT));
+        }
+    }
+
+    /**
+     * Until the new station's tune reply is accepted, the current tune is still the old station
+     * and station values received may belong to either of them.
+     *
+     * @return  true while a tune reply is expected and hasn't expired
+     */
+    boolean isTunePending() {
+        ExpectedTune expected = this.mExpectedTune.get();
+        return expected != null && SystemClock.elapsedRealtime() <= expected.deadline;
+    }
+
+    /**
+     * Checks a tune reply against the expected tune, clearing the expectation once it is
+     * confirmed or has expired.
+     *
+     * @return  true if the reply is for the current tune, false if it is stale
+     */
+    private boolean acceptTune(TuneInfo info) {
+        ExpectedTune expected = this.mExpectedTune.get();
+        if (expected == null) {
+            return true;
+        }
+
+        if ((expected.target.getBand() == info.getBand() &&
+                expected.target.getFrequency() == info.getFrequency()) ||
+                SystemClock.elapsedRealtime() > expected.deadline) {
+            this.mExpectedTune.compareAndSet(expected, null);
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public ByteBuffer obtainBuffer(int capacity) {
+        if (capacity > POOL_BUFFER_SIZE) {
+            return ByteBuffer.allocate(capacity);
+        }
+        return this.mBufferPool.acquire();
+    }
+
+    @Override
+    public void onBytes(ByteBuffer data) {
+        long receivedTime = System.nanoTime();
+
+        if (this.mInlineParsing) {
+            this.parseAndRelease(data, receivedTime, false);
+            return;
+        }
+
+        // The receive timestamp is split across both message arguments so the latency of
+        // the handoff can be measured
+        Message msg = this.obtainMessage();
+        msg.obj = data;
+        msg.arg1 = (int) (receivedTime >>> 32);
+        msg.arg2 = (int) receivedTime;
+        this.sendMessage(msg);
     }
 
     @Override
     public void handleMessage(Message msg) {
-        parseIncomingBytes((byte[]) msg.obj);
+        long receivedTime = ((long) msg.arg1 << 32) | (msg.arg2 & 0xFFFFFFFFL);
+        this.parseAndRelease((ByteBuffer) msg.obj, receivedTime, true);
     }
 
-    private void parseIncomingBytes(byte[] incomingBytes) {
+    private void parseAndRelease(ByteBuffer incomingBytes, long receivedTime, boolean handedOff) {
+        synchronized (PARSE_LOCK) {
+            parseIncomingBytes(incomingBytes);
+        }
+        this.mBufferPool.release(incomingBytes);
+        this.mMetrics.recordParseLatency(System.nanoTime() - receivedTime, handedOff);
+    }
 
-         Timber.d("Incoming Radio Bytes:\n%s", RadioPacketBuilder.bytesToHexString(incomingBytes));
+    private void parseIncomingBytes(ByteBuffer incomingBytes) {
+
+        ProtocolTrace.hex("Incoming Radio Bytes", incomingBytes);
+        this.mLinkMetrics.recordBytesReceived(incomingBytes.remaining());
 
         /**
          * The following is known the following about radio packets:
@@ -74,12 +211,17 @@ public class RadioDataHandler extends Handler {
          * The checksum is calculated as the sum of all bytes received (outside of the checksum itself) mod 256
          */
 
-        for (byte b : incomingBytes) {
+        while (incomingBytes.hasRemaining()) {
+            byte b = incomingBytes.get();
             if ((b == (byte) 0xA4)) {
                 // Header received, start new packet
 
                 if (this.mPacketStarted) {
                     Timber.v("New header received during previous packet, discarding current packet");
+                    this.recordReceived(FlightRecorder.EVENT_RESYNC, this.mDataBuffer);
+                } else if (this.mStrayBytes > 0) {
+                    this.recordLinkEvent(FlightRecorder.EVENT_STRAY_BYTES, 0, 0, this.mStrayBytes);
+                    this.mStrayBytes = 0;
                 }
 
                 // Start byte is received and it isn't the length byte or the checksum
@@ -91,13 +233,14 @@ public class RadioDataHandler extends Handler {
                 this.mIsEscaped = false;   // just in case a header is read directly after escape byte
             } else if (!this.mPacketStarted) {
                 Timber.v("Byte received without a start header, discarding");
+                this.mStrayBytes++;
             } else if (b == (byte) 0x1B && !this.mIsEscaped) {
                 // Escape byte received
                 this.mIsEscaped = true;
             } else {
 
                 if (this.mIsEscaped) {
-                    Timber.d("Escaped char: %#x", b);
+                    ProtocolTrace.escaped(b);
 
                     if (b == (byte) 0x48) {
                         // 0x48 is escaped as 0xA4
@@ -116,20 +259,19 @@ public class RadioDataHandler extends Handler {
                     if (this.mPacketLength == 0) {
                         // Received a header with an empty packet, not sure what to do
                         Timber.wtf("Packet length received is zero, discard packet");
+                        this.recordLinkEvent(FlightRecorder.EVENT_ZERO_LENGTH, 0, 0, 0);
                         this.mPacketStarted = false;
                     }
                 } else if (this.mDataBuffer.position() == this.mPacketLength) {
                     // Checksum byte received
 
                     if ((this.mPacketCheckSum % 256) == (b & 0xFF)) {
-                        // Checksum is valid
-
-                        byte[] data = new byte[this.mPacketLength];
+                        // Checksum is valid, parse the packet in place
                         this.mDataBuffer.flip();
-                        this.mDataBuffer.get(data);
-                        this.processRadioPacket(data);
+                        this.processRadioPacket(this.mDataBuffer);
                     } else {
                         Timber.v("Invalid checksum, discarding packet");
+                        this.recordReceived(FlightRecorder.EVENT_CHECKSUM_ERROR, this.mDataBuffer);
                     }
 
                     // set packet to false so stray bytes that are no 0xA4 are discarded
@@ -144,7 +286,7 @@ public class RadioDataHandler extends Handler {
         }
     }
 
-    private void processRadioPacket(byte[] radioPacket) {
+    private void processRadioPacket(ByteBuffer msgBuf) {
         /**
          *  Radio Packet Structure:
          * - Bytes 0 and 1 are the message command(IE: tune, power, etc)
@@ -152,30 +294,43 @@ public class RadioDataHandler extends Handler {
          * - Packets received from the radio should always be replies
          */
 
-        Timber.v("Data packet hex:\n%s", RadioPacketBuilder.bytesToHexString(radioPacket));
+        ProtocolTrace.hex("Data packet hex", msgBuf);
+
+        int length = msgBuf.remaining();
+        if (length < 4) {
+            Timber.w("Error, packet too short for a command");
+            this.recordLinkEvent(FlightRecorder.EVENT_SHORT_PACKET, 0, 0, length);
+            return;
+        }
 
-        ByteBuffer msgBuf = ByteBuffer.wrap(radioPacket);
         msgBuf.order(ByteOrder.LITTLE_ENDIAN);
         int messageCmd = msgBuf.getShort();
         int messageOp = msgBuf.getShort();
 
         if (messageOp != RadioOperation.REPLY.getByteValueAsInt()) {
             Timber.v("Message is not a reply, discarding");
+            this.recordLinkEvent(FlightRecorder.EVENT_NOT_REPLY, messageCmd, messageOp, length);
             return;
         }
 
         RadioCommand command = RadioCommand.getCommandFromValue(messageCmd);
         if (command == null) {
             Timber.i("Unknown command, cannot process packet");
+            this.recordLinkEvent(FlightRecorder.EVENT_UNKNOWN_COMMAND, messageCmd, messageOp,
+                    length);
             return;
         }
 
         if (msgBuf.remaining() < 4) {
             Timber.w("Error, not enough bytes in buffer");
+            this.recordLinkEvent(FlightRecorder.EVENT_SHORT_PACKET, messageCmd, messageOp,
+                    length);
             return;
         }
 
-        Timber.d("Received Command: %s", command.toString());
+        this.recordLinkEvent(FlightRecorder.EVENT_FRAME, messageCmd, messageOp, length);
+
+        ProtocolTrace.frame(command);
 
         switch (command) {
             case POWER: {
@@ -207,13 +362,32 @@ public class RadioDataHandler extends Handler {
             }
             case TUNE: {
                 TuneInfo info = this.parseTuneInfo(msgBuf);
-                this.mRadioValues.setTune(info);
+                if (info == null) {
+                    this.recordLinkEvent(FlightRecorder.EVENT_PARSE_ERROR, messageCmd, messageOp,
+                            length);
+                    break;
+                }
+                if (!this.acceptTune(info)) {
+                    Timber.v("Ignoring stale tune reply: %d", info.getFrequency());
+                    this.mMetrics.recordStaleTuneReply();
+                    return;
+                }
+                StationCache.Station cached = this.mStationCache.lookup(info);
+                this.mRadioValues.setTune(info, cached);
                 this.mEventHandler.handleTuneEvent(info);
+                if (cached != null) {
+                    this.dispatchCachedValues();
+                }
                 this.mDataHandlerEvents.onTuneReceived();
                 break;
             }
             case SEEK: {
                 TuneInfo info = this.parseTuneInfo(msgBuf);
+                if (info == null) {
+                    this.recordLinkEvent(FlightRecorder.EVENT_PARSE_ERROR, messageCmd, messageOp,
+                            length);
+                    break;
+                }
                 this.mEventHandler.handleSeekEvent(info);
                 break;
             }
@@ -248,6 +422,7 @@ public class RadioDataHandler extends Handler {
             case HD_SUBCHANNEL_COUNT: {
                 int count = this.parseInteger(msgBuf);
                 this.mRadioValues.mHdSubchannelCount.set(count);
+                this.storeStationValue(command, count);
                 this.mEventHandler.handleHdSubchannelCountEvent(count);
                 break;
             }
@@ -274,12 +449,14 @@ public class RadioDataHandler extends Handler {
             case HD_CALLSIGN: {
                 String callsign = this.parseString(msgBuf);
                 this.mRadioValues.mHdCallsign.set(callsign);
+                this.storeStationValue(command, callsign);
                 this.mEventHandler.handleHdCallsignEvent(callsign);
                 break;
             }
             case HD_STATION_NAME: {
                 String stationName = this.parseString(msgBuf);
                 this.mRadioValues.mHdStationName.set(stationName);
+                this.storeStationValue(command, stationName);
                 this.mEventHandler.handleHdStationNameEvent(stationName);
                 break;
             }
@@ -291,9 +468,6 @@ public class RadioDataHandler extends Handler {
             case HD_API_VERSION: {
                 String apiVersion = this.parseString(msgBuf);
                 this.mRadioValues.mApiVersion.set(apiVersion);
-
-                // This is the last variable requested during initialization, so execute onInit Event
-                this.mDataHandlerEvents.onInitComplete();
                 break;
             }
             case HD_HW_VERSION: {
@@ -312,12 +486,14 @@ public class RadioDataHandler extends Handler {
             case RDS_GENRE: {
                 String rdsGenre = this.parseString(msgBuf);
                 this.mRadioValues.mRdsGenre.set(rdsGenre);
+                this.storeStationValue(command, rdsGenre);
                 this.mEventHandler.handleRdsGenreEvent(rdsGenre);
                 break;
             }
             case RDS_PROGRAM_SERVICE: {
                 String rdsProgramService = this.parseString(msgBuf);
                 this.mRadioValues.mRdsProgramService.set(rdsProgramService);
+                this.storeStationValue(command, rdsProgramService);
                 this.mEventHandler.handleRdsProgramServiceEvent(rdsProgramService);
                 break;
             }
@@ -361,16 +537,37 @@ public class RadioDataHandler extends Handler {
                 Timber.i("Invalid Command: %s", command);
         }
 
+        this.mRadioValues.markUpdated(command, SystemClock.elapsedRealtime());
+        this.mDataHandlerEvents.onReplyReceived(command);
+
         if (msgBuf.remaining() > 0) {
             Timber.v("Remaining bytes in Data packet after parsing");
         }
 
     }
 
+    /**
+     * Records a discarded packet, with its command and operation if enough of it was received
+     */
+    private void recordReceived(int event, ByteBuffer packet) {
+        int length = packet.position();
+        int command = 0;
+        int operation = 0;
+        if (length >= 4) {
+            command = (packet.get(0) & 0xFF) | ((packet.get(1) & 0xFF) << 8);
+            operation = (packet.get(2) & 0xFF) | ((packet.get(3) & 0xFF) << 8);
+        }
+        this.recordLinkEvent(event, command, operation, length);
+    }
+
+    private void recordLinkEvent(int event, int command, int operation, int length) {
+        this.mRecorder.record(FlightRecorder.DIRECTION_RX, event, command, operation, length);
+        this.mLinkMetrics.recordReceived(event, length);
+    }
+
     private int parseInteger(ByteBuffer msgBuffer) {
         int value = msgBuffer.getInt();
-
-        Timber.d("Value: %s", value);
+        ProtocolTrace.value(value);
         return value;
     }
 
@@ -387,8 +584,7 @@ public class RadioDataHandler extends Handler {
             return null;
         }
 
-        Timber.d("Value: %b", status);
-
+        ProtocolTrace.value(status);
         return status;
     }
 
@@ -411,11 +607,129 @@ public class RadioDataHandler extends Handler {
             strMsg = new String(stringBytes);
         }
 
-        Timber.d("Length: %s \nConverted String: \n%s", strLength, strMsg);
-
+        ProtocolTrace.value(strMsg);
         return strMsg;
     }
 
+    /**
+     * Sends an event for the value currently held in RadioValues, as if it had just been
+     * received.  Used to answer update requests without querying the radio.
+     *
+     * @return  false if the command has no stored value that can be dispatched
+     */
+    boolean dispatchStoredValue(RadioCommand command) {
+        RadioValues values = this.mRadioValues;
+        switch (command) {
+            case MUTE:
+                this.mEventHandler.handleMuteEvent(values.mMute.get());
+                break;
+            case SIGNAL_STRENGTH:
+                this.mEventHandler.handleSignalStrengthEvent(values.mSignalStrength.get());
+                break;
+            case TUNE:
+                this.mEventHandler.handleTuneEvent(values.mTune.get());
+                break;
+            case HD_ACTIVE:
+                this.mEventHandler.handleHdActiveEvent(values.mHdActive.get());
+                break;
+            case HD_STREAM_LOCK:
+                this.mEventHandler.handleHdStreamLockEvent(values.mHdStreamLock.get());
+                break;
+            case HD_SIGNAL_STRENGTH:
+                this.mEventHandler.handleHdSignalStrengthEvent(values.mHdSignalStrength.get());
+                break;
+            case HD_SUBCHANNEL:
+                this.mEventHandler.handleHdSubchannelEvent(values.mHdSubchannel.get());
+                break;
+            case HD_SUBCHANNEL_COUNT:
+                this.mEventHandler.handleHdSubchannelCountEvent(values.mHdSubchannelCount.get());
+                break;
+            case HD_TITLE:
+                this.mEventHandler.handleHdTitleEvent(new HDSongInfo(values.mHdTitle.get(),
+                        values.mHdSubchannel.get()));
+                break;
+            case HD_ARTIST:
+                this.mEventHandler.handleHdArtistEvent(new HDSongInfo(values.mHdArtist.get(),
+                        values.mHdSubchannel.get()));
+                break;
+            case HD_CALLSIGN:
+                this.mEventHandler.handleHdCallsignEvent(values.mHdCallsign.get());
+                break;
+            case HD_STATION_NAME:
+                this.mEventHandler.handleHdStationNameEvent(values.mHdStationName.get());
+                break;
+            case HD_UNIQUE_ID:
+            case HD_API_VERSION:
+            case HD_HW_VERSION:
+                // No events for these, the stored value is all there is
+                break;
+            case RDS_ENABLED:
+                this.mEventHandler.handleRdsEnabledEvent(values.mRdsEnabled.get());
+                break;
+            case RDS_GENRE:
+                this.mEventHandler.handleRdsGenreEvent(values.mRdsGenre.get());
+                break;
+            case RDS_PROGRAM_SERVICE:
+                this.mEventHandler.handleRdsProgramServiceEvent(values.mRdsProgramService.get());
+                break;
+            case RDS_RADIO_TEXT:
+                this.mEventHandler.handleRdsRadioTextEvent(values.mRdsRadioText.get());
+                break;
+            case VOLUME:
+                this.mEventHandler.handleVolumeEvent(values.mVolume.get());
+                break;
+            case BASS:
+                this.mEventHandler.handleBassEvent(values.mBass.get());
+                break;
+            case TREBLE:
+                this.mEventHandler.handleTrebleEvent(values.mTreble.get());
+                break;
+            case COMPRESSION:
+                this.mEventHandler.handleCompressionEvent(values.mCompression.get());
+                break;
+            default:
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Marks a cacheable station value as live and stores it in the station cache under the
+     * current tune.
+     */
+    private void storeStationValue(RadioCommand command, Object value) {
+        this.mRadioValues.confirmField(command);
+
+        if (this.isTunePending()) {
+            return;
+        }
+        this.mStationCache.update(this.mRadioValues.mTune.get(), command, value);
+    }
+
+    /**
+     * Sends events for the provisional values set from the station cache, so they can be
+     * displayed before the radio sends them.
+     */
+    private void dispatchCachedValues() {
+        if (this.mRadioValues.isCached(RadioCommand.HD_CALLSIGN)) {
+            this.mEventHandler.handleHdCallsignEvent(this.mRadioValues.mHdCallsign.get());
+        }
+        if (this.mRadioValues.isCached(RadioCommand.HD_STATION_NAME)) {
+            this.mEventHandler.handleHdStationNameEvent(this.mRadioValues.mHdStationName.get());
+        }
+        if (this.mRadioValues.isCached(RadioCommand.RDS_PROGRAM_SERVICE)) {
+            this.mEventHandler.handleRdsProgramServiceEvent(
+                    this.mRadioValues.mRdsProgramService.get());
+        }
+        if (this.mRadioValues.isCached(RadioCommand.RDS_GENRE)) {
+            this.mEventHandler.handleRdsGenreEvent(this.mRadioValues.mRdsGenre.get());
+        }
+        if (this.mRadioValues.isCached(RadioCommand.HD_SUBCHANNEL_COUNT)) {
+            this.mEventHandler.handleHdSubchannelCountEvent(
+                    this.mRadioValues.mHdSubchannelCount.get());
+        }
+    }
+
     private TuneInfo parseTuneInfo(ByteBuffer msgBuffer) {
         RadioBand band;
         int bandValue = msgBuffer.getInt();     // Get band bytes
@@ -430,7 +744,7 @@ public class RadioDataHandler extends Handler {
 
         int freqency = msgBuffer.getInt();    // Get frequency bytes
 
-        Timber.d("Value: %d %s ", freqency, band.toString());
+        ProtocolTrace.value(band, freqency);
 
         // TODO: There are another 4 bytes for tune, 8 for seek (all zeroes in test cases) remaining in buffer,
         // DO something with them?  Are they the subchannel?
@@ -457,7 +771,7 @@ public class RadioDataHandler extends Handler {
             songInfo = new String(stringBytes);
         }
 
-        Timber.d("Subchannel: %d Info: %s", subch, songInfo);
+        ProtocolTrace.value(subch, songInfo);
 
         return new HDSongInfo(songInfo, subch);
     }
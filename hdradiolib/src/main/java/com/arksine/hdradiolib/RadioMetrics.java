@@ -0,0 +1,374 @@
+package com.arksine.hdradiolib;
+
+import com.arksine.hdradiolib.enums.RadioCommand;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and timings collected while the radio is in use.  Values are recorded from the
+ * library's handler threads, and may be read from any thread.  Times are in milliseconds.
+ */
+
+public class RadioMetrics {
+
+    // Reconnect supervisor
+    private final AtomicInteger mReconnectAttempts = new AtomicInteger(0);
+    private final AtomicInteger mReconnectSuccesses = new AtomicInteger(0);
+    private final AtomicInteger mReconnectFailures = new AtomicInteger(0);
+    private final AtomicLong mLastReconnectTime = new AtomicLong(0);
+    private final AtomicLong mLastRestoreTime = new AtomicLong(0);
+
+    // Incoming data parsing
+    private final AtomicLong mParsedChunks = new AtomicLong(0);
+    private final AtomicLong mHandedOffChunks = new AtomicLong(0);
+    private final AtomicLong mTotalParseLatency = new AtomicLong(0);
+    private final AtomicLong mMaxParseLatency = new AtomicLong(0);
+
+    // Event delivery
+    private final AtomicLong mDirectCallbackOverruns = new AtomicLong(0);
+
+    // Signal strength polling
+    private final AtomicLong mSignalPolls = new AtomicLong(0);
+    private final AtomicLong mHdSignalPolls = new AtomicLong(0);
+
+    // HD subchannel selection
+    private final AtomicLong mLastSubchannelTime = new AtomicLong(0);
+    private final AtomicLong mSubchannelSets = new AtomicLong(0);
+    private final AtomicInteger mSubchannelFailures = new AtomicInteger(0);
+
+    // Power on initialization
+    private final AtomicLong mTimeToFirstAudio = new AtomicLong(0);
+    private final AtomicInteger mInitSetsSent = new AtomicInteger(0);
+    private final AtomicInteger mInitSetsSkipped = new AtomicInteger(0);
+    private final AtomicLong mInitTime = new AtomicLong(0);
+    private final AtomicInteger mInitMissedReplies = new AtomicInteger(0);
+    private final AtomicLongArray mInitStepTimes =
+            new AtomicLongArray(RadioCommand.values().length);
+
+    // Update requests
+    private final AtomicLong mUpdateCacheHits = new AtomicLong(0);
+    private final AtomicLong mUpdateCacheMisses = new AtomicLong(0);
+    private final AtomicLong mUpdatesCoalesced = new AtomicLong(0);
+
+    // Volume, bass and treble overlay
+    private final AtomicLong mOverlayDivergences = new AtomicLong(0);
+
+    // Tune supersession
+    private final AtomicLong mSupersededTunes = new AtomicLong(0);
+    private final AtomicLong mStaleTuneReplies = new AtomicLong(0);
+
+    RadioMetrics() {
+        this.resetInitSteps();
+    }
+
+    void recordReconnectAttempt() {
+        this.mReconnectAttempts.incrementAndGet();
+    }
+
+    void recordReconnectSuccess(long reconnectTime) {
+        this.mReconnectSuccesses.incrementAndGet();
+        this.mLastReconnectTime.set(reconnectTime);
+    }
+
+    void recordReconnectFailure() {
+        this.mReconnectFailures.incrementAndGet();
+    }
+
+    void recordRestoreTime(long restoreTime) {
+        this.mLastRestoreTime.set(restoreTime);
+    }
+
+    void recordParseLatency(long latencyNanos, boolean handedOff) {
+        this.mParsedChunks.incrementAndGet();
+        if (handedOff) {
+            this.mHandedOffChunks.incrementAndGet();
+        }
+        this.mTotalParseLatency.addAndGet(latencyNanos);
+
+        long max = this.mMaxParseLatency.get();
+        while (latencyNanos > max && !this.mMaxParseLatency.compareAndSet(max, latencyNanos)) {
+            max = this.mMaxParseLatency.get();
+        }
+    }
+
+    void recordDirectCallbackOverrun() {
+        this.mDirectCallbackOverruns.incrementAndGet();
+    }
+
+    void recordSignalPoll(boolean hdActive) {
+        if (hdActive) {
+            this.mHdSignalPolls.incrementAndGet();
+        } else {
+            this.mSignalPolls.incrementAndGet();
+        }
+    }
+
+    void recordSubchannelSet() {
+        this.mSubchannelSets.incrementAndGet();
+    }
+
+    void recordSubchannelAcquired(long elapsed) {
+        this.mLastSubchannelTime.set(elapsed);
+    }
+
+    void recordSubchannelFailure() {
+        this.mSubchannelFailures.incrementAndGet();
+    }
+
+    void recordInitPlan(int sent, int skipped) {
+        this.mInitSetsSent.set(sent);
+        this.mInitSetsSkipped.set(skipped);
+    }
+
+    void resetInitSteps() {
+        for (int i = 0; i < this.mInitStepTimes.length(); i++) {
+            this.mInitStepTimes.set(i, -1);
+        }
+    }
+
+    void recordInitStep(RadioCommand command, long elapsed) {
+        this.mInitStepTimes.set(command.ordinal(), elapsed);
+    }
+
+    void recordInitComplete(long elapsed, int missedReplies) {
+        this.mInitTime.set(elapsed);
+        this.mInitMissedReplies.set(missedReplies);
+    }
+
+    void recordTimeToFirstAudio(long elapsed) {
+        this.mTimeToFirstAudio.set(elapsed);
+    }
+
+    void recordUpdateCacheHit() {
+        this.mUpdateCacheHits.incrementAndGet();
+    }
+
+    void recordUpdateCacheMiss() {
+        this.mUpdateCacheMisses.incrementAndGet();
+    }
+
+    void recordUpdateCoalesced() {
+        this.mUpdatesCoalesced.incrementAndGet();
+    }
+
+    void recordOverlayDivergence() {
+        this.mOverlayDivergences.incrementAndGet();
+    }
+
+    void recordSupersededTune() {
+        this.mSupersededTunes.incrementAndGet();
+    }
+
+    void recordStaleTuneReply() {
+        this.mStaleTuneReplies.incrementAndGet();
+    }
+
+    /**
+     * Resets the parse counters, so inline and queued parsing can be compared over the same
+     * workload.
+     */
+    public void resetParseStats() {
+        this.mParsedChunks.set(0);
+        this.mHandedOffChunks.set(0);
+        this.mTotalParseLatency.set(0);
+        this.mMaxParseLatency.set(0);
+    }
+
+    /**
+     * @return  Total number of times the reconnect supervisor attempted to reopen the device
+     */
+    public int getReconnectAttempts() {
+        return this.mReconnectAttempts.get();
+    }
+
+    /**
+     * @return  Number of connection losses that were recovered by the reconnect supervisor
+     */
+    public int getReconnectSuccesses() {
+        return this.mReconnectSuccesses.get();
+    }
+
+    /**
+     * @return  Number of connection losses the reconnect supervisor gave up on
+     */
+    public int getReconnectFailures() {
+        return this.mReconnectFailures.get();
+    }
+
+    /**
+     * @return  Time from the most recent connection loss until the device was reopened
+     */
+    public long getLastReconnectTime() {
+        return this.mLastReconnectTime.get();
+    }
+
+    /**
+     * @return  Time from the most recent reopen until the radio state was restored
+     */
+    public long getLastRestoreTime() {
+        return this.mLastRestoreTime.get();
+    }
+
+    /**
+     * @return  Number of chunks of incoming data parsed
+     */
+    public long getParsedChunks() {
+        return this.mParsedChunks.get();
+    }
+
+    /**
+     * @return  Number of parsed chunks that were handed from the driver's read thread to the
+     *          data handler thread.  Each one costs a thread switch that inline parsing avoids.
+     */
+    public long getHandedOffChunks() {
+        return this.mHandedOffChunks.get();
+    }
+
+    /**
+     * @return  Mean time in microseconds from a chunk arriving from the driver until it has been
+     *          parsed and its values published
+     */
+    public long getAverageParseLatency() {
+        long chunks = this.mParsedChunks.get();
+        return (chunks == 0) ? 0 : (this.mTotalParseLatency.get() / chunks) / 1000;
+    }
+
+    /**
+     * @return  Longest time in microseconds from a chunk arriving until it was parsed
+     */
+    public long getMaxParseLatency() {
+        return this.mMaxParseLatency.get() / 1000;
+    }
+
+    /**
+     * @return  Number of direct listener callbacks that exceeded the direct callback budget
+     */
+    public long getDirectCallbackOverruns() {
+        return this.mDirectCallbackOverruns.get();
+    }
+
+    /**
+     * @return  Number of SIGNAL_STRENGTH requests sent by the signal poller
+     */
+    public long getSignalPolls() {
+        return this.mSignalPolls.get();
+    }
+
+    /**
+     * @return  Number of HD_SIGNAL_STRENGTH requests sent by the signal poller
+     */
+    public long getHdSignalPolls() {
+        return this.mHdSignalPolls.get();
+    }
+
+    /**
+     * @return  Time from the most recent tune with a subchannel until the radio confirmed it
+     */
+    public long getLastSubchannelTime() {
+        return this.mLastSubchannelTime.get();
+    }
+
+    /**
+     * @return  Number of HD_SUBCHANNEL requests written while acquiring subchannels
+     */
+    public long getSubchannelSets() {
+        return this.mSubchannelSets.get();
+    }
+
+    /**
+     * @return  Number of subchannel selections that gave up without confirmation
+     */
+    public int getSubchannelFailures() {
+        return this.mSubchannelFailures.get();
+    }
+
+    /**
+     * @return  Time from the most recent power on request until the hardware mute was released
+     */
+    public long getTimeToFirstAudio() {
+        return this.mTimeToFirstAudio.get();
+    }
+
+    /**
+     * @return  Time from the start of the most recent initialization until it completed
+     */
+    public long getInitTime() {
+        return this.mInitTime.get();
+    }
+
+    /**
+     * @return  Number of required replies that hadn't arrived when the most recent
+     *          initialization reached its deadline
+     */
+    public int getInitMissedReplies() {
+        return this.mInitMissedReplies.get();
+    }
+
+    /**
+     * @return  Time from the start of the most recent initialization until the required reply
+     *          for the command arrived, or -1 if it was not required or never arrived
+     */
+    public long getInitStepTime(RadioCommand command) {
+        return this.mInitStepTimes.get(command.ordinal());
+    }
+
+    /**
+     * @return  Number of values set during the most recent power on initialization
+     */
+    public int getInitSetsSent() {
+        return this.mInitSetsSent.get();
+    }
+
+    /**
+     * @return  Number of values the radio already held during the most recent power on
+     *          initialization, which did not need to be set
+     */
+    public int getInitSetsSkipped() {
+        return this.mInitSetsSkipped.get();
+    }
+
+    /**
+     * @return  Number of update requests answered from values already held
+     */
+    public long getUpdateCacheHits() {
+        return this.mUpdateCacheHits.get();
+    }
+
+    /**
+     * @return  Number of update requests that required a request to the radio
+     */
+    public long getUpdateCacheMisses() {
+        return this.mUpdateCacheMisses.get();
+    }
+
+    /**
+     * @return  Number of update requests merged into a request already waiting for its reply
+     */
+    public long getUpdatesCoalesced() {
+        return this.mUpdatesCoalesced.get();
+    }
+
+    /**
+     * @return  Number of times the radio settled on a volume, bass or treble value other than the
+     *          one requested
+     */
+    public long getOverlayDivergences() {
+        return this.mOverlayDivergences.get();
+    }
+
+    /**
+     * @return  Number of queued tune and seek requests dropped because a newer one was issued
+     */
+    public long getSupersededTunes() {
+        return this.mSupersededTunes.get();
+    }
+
+    /**
+     * @return  Number of tune replies ignored because they belonged to a superseded tune
+     */
+    public long getStaleTuneReplies() {
+        return this.mStaleTuneReplies.get();
+    }
+}
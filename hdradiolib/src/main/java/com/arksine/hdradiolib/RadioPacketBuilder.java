@@ -2,14 +2,12 @@ package com.arksine.hdradiolib;
 
 import android.support.annotation.NonNull;
 
-import com.arksine.hdradiolib.enums.RadioBand;
 import com.arksine.hdradiolib.enums.RadioCommand;
 import com.arksine.hdradiolib.enums.RadioConstant;
 import com.arksine.hdradiolib.enums.RadioOperation;
 
 import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 import timber.log.Timber;
 
@@ -21,33 +19,149 @@ class RadioPacketBuilder {
 
     private RadioPacketBuilder() {}
 
-    public static byte[] buildRadioPacket(RadioCommand command, RadioOperation op) {
-        return buildRadioPacket(command, op, null);
+    // GET packets never change, so they are encoded once and shared
+    private static final byte[][] REQUEST_PACKETS = new byte[RadioCommand.values().length][];
+    static {
+        for (RadioCommand command : RadioCommand.values()) {
+            byte[] dataPacket = newPacket(command, RadioOperation.GET, 0);
+            if (dataPacket != null) {
+                REQUEST_PACKETS[command.ordinal()] = encodeFrame(dataPacket);
+            }
+        }
     }
 
-    public static byte[] buildRadioPacket(RadioCommand command, RadioOperation op, Object data) {
+    // Largest value accepted by the volume, bass, treble and subchannel commands
+    private static final int MAX_INT_VALUE = 90;
 
+    /**
+     * Encodes a GET request.  The returned array is shared and must not be modified.
+     */
+    static byte[] encodeGet(@NonNull RadioCommand command) {
+        return traceSent(REQUEST_PACKETS[command.ordinal()]);
+    }
 
-        byte[] dataPacket;
-        byte lengthByte;
-        byte checkByte;
-
-        switch (op) {
-            case GET:
-                dataPacket = buildRequestPacket(command);
+    /**
+     * Encodes a SET for an integer command: VOLUME, BASS, TREBLE, HD_SUBCHANNEL or
+     * RF_MODULATOR.  Volume, bass, treble and subchannel values are clamped to 0 - 90.
+     *
+     * @return  the radio packet, or null if the command does not take an integer
+     */
+    static byte[] encodeInt(@NonNull RadioCommand command, int value) {
+        byte[] packet;
+        switch (command) {
+            case VOLUME:
+            case BASS:
+            case TREBLE:
+            case HD_SUBCHANNEL:
+                // TODO: It may be possible to set integer commands up or down the way tune
+                // and seek are done, but the correct constant is unknown.  It appears any value
+                // outside of the range 1-90 is automatically zero
+                packet = newPacket(command, RadioOperation.SET, 4);
+                putInt(packet, 4, Math.max(0, Math.min(MAX_INT_VALUE, value)));
                 break;
-            case SET:
-                dataPacket = buildSetPacket(command, data);
+            case RF_MODULATOR:
+                // TODO: currently only setting to OFF.  Add functionality to turn on in the future
+                packet = newPacket(command, RadioOperation.SET, 8);
+                putInt(packet, 8, value);   // bytes 4 - 7 are zero
                 break;
             default:
-                Timber.v("Invalid operation, must be get or set");
+                // COMPRESSION is reported as an integer, but doesn't appear to respond to sets
+                Timber.i("Invalid integer command, cannot set: %s", command);
                 return null;
         }
+        return traceSent(encodeFrame(packet));
+    }
+
+    /**
+     * Encodes a SET for a boolean command: POWER or MUTE.
+     *
+     * @return  the radio packet, or null if the command does not take a boolean
+     */
+    static byte[] encodeBool(@NonNull RadioCommand command, boolean value) {
+        switch (command) {
+            case POWER:
+            case MUTE:
+                byte[] packet = newPacket(command, RadioOperation.SET, 4);
+                putInt(packet, 4, value ? 1 : 0);
+                return traceSent(encodeFrame(packet));
+            default:
+                Timber.i("Invalid boolean command, cannot set: %s", command);
+                return null;
+        }
+    }
+
+    /**
+     * Encodes a direct tune to a station
+     */
+    static byte[] encodeTune(@NonNull TuneInfo tuneInfo) {
+        byte[] packet = newPacket(RadioCommand.TUNE, RadioOperation.SET, 12);
+        putInt(packet, 4, tuneInfo.getBand().getByteValueAsInt());
+        putInt(packet, 8, tuneInfo.getFrequency());
+        // pad end with 4 zero bytes
+        return traceSent(encodeFrame(packet));
+    }
+
+    /**
+     * Encodes a seek up or down
+     *
+     * @return  the radio packet, or null if the seek direction isn't UP or DOWN
+     */
+    static byte[] encodeSeek(@NonNull SeekData seekData) {
+        RadioConstant direction = seekData.getDirection();
+        if (!(direction == RadioConstant.UP || direction == RadioConstant.DOWN)) {
+            Timber.v("Direction is not valid for seek command");
+            return null;
+        }
 
-        if (dataPacket == null) {
+        byte[] packet = newPacket(RadioCommand.SEEK, RadioOperation.SET, 16);
+        // Band Bytes (The HD Radio app uses SEEK_REQ_ID), the real controller uses band
+        putInt(packet, 4, seekData.getBand().getByteValueAsInt());
+        putInt(packet, 12, direction.getByteValueAsInt());     // bytes 8 - 11 are zero
+        // Seek all stations (0) or only HD stations (1)
+        putInt(packet, 16, seekData.isSeekAll() ? 0 : 1);
+        return traceSent(encodeFrame(packet));
+    }
+
+    /**
+     * Allocates a data packet holding the command and operation codes followed by room for the
+     * payload, which is zero filled.
+     */
+    private static byte[] newPacket(RadioCommand command, RadioOperation op, int payloadLength) {
+        byte[] commandCode = command.getBytes();
+        byte[] operationCode = op.getBytes();
+        if (commandCode == null || operationCode == null) {
+            Timber.v("Invalid command or operation key, cannot build packet");
             return null;
         }
 
+        byte[] packet = new byte[commandCode.length + operationCode.length + payloadLength];
+        System.arraycopy(commandCode, 0, packet, 0, commandCode.length);
+        System.arraycopy(operationCode, 0, packet, commandCode.length, operationCode.length);
+        return packet;
+    }
+
+    // Writes a little endian integer
+    private static void putInt(byte[] packet, int offset, int value) {
+        packet[offset] = (byte) value;
+        packet[offset + 1] = (byte) (value >> 8);
+        packet[offset + 2] = (byte) (value >> 16);
+        packet[offset + 3] = (byte) (value >> 24);
+    }
+
+    private static byte[] traceSent(byte[] radioPacket) {
+        if (radioPacket != null) {
+            ProtocolTrace.hex("Hex Bytes Sent", radioPacket);
+        }
+        return radioPacket;
+    }
+
+    /**
+     * Wraps a data packet in a radio frame: header, length, escaped data and checksum
+     */
+    private static byte[] encodeFrame(byte[] dataPacket) {
+        byte lengthByte;
+        byte checkByte;
+
         // TODO: The code below could be done in the write function of MjsRadioDriver, since that is essentially an output
         //       stream as well.  Would be faster, as I would only have to write to one steam instead of two.
 
@@ -108,185 +222,9 @@ class RadioPacketBuilder {
                 break;
         }
 
-        Timber.d("Hex Bytes Sent:\n%s", bytesToHexString(bufferOut.toByteArray()));
-
         return bufferOut.toByteArray();
     }
 
-    private static byte[] buildRequestPacket(@NonNull RadioCommand command) {
-        ByteBuffer dataBuf = ByteBuffer.allocate(4);
-        dataBuf.order(ByteOrder.LITTLE_ENDIAN);
-
-        byte[] commandCode = command.getBytes();
-        byte[] operationCode = RadioOperation.GET.getBytes();
-
-        if (commandCode == null || operationCode == null) {
-            Timber.v("Invalid command or operation key, cannot build packet");
-            return null;
-        }
-
-        dataBuf.put(commandCode);
-        dataBuf.put(operationCode);
-        return dataBuf.array();
-    }
-
-    private static byte[] buildSetPacket(@NonNull RadioCommand command, Object data) {
-
-        ByteBuffer dataBuf = ByteBuffer.allocate(256);  // 256 is absolute maximum length of packet
-        dataBuf.order(ByteOrder.LITTLE_ENDIAN);
-
-        byte[] commandCode = command.getBytes();
-        byte[] operationCode = RadioOperation.SET.getBytes();
-
-        if (commandCode == null || operationCode == null) {
-            Timber.v("Invalid command or operation key, cannot build packet");
-            return null;
-        }
-
-        dataBuf.put(commandCode);
-        dataBuf.put(operationCode);
-
-        switch (command) {
-            case POWER:           // set boolean item
-            case MUTE:
-                if (!(data instanceof Boolean)) {
-                    Timber.i("Invalid boolean data received for command: %s", command.toString());
-                    return null;
-                }
-
-                boolean statusOn = (boolean) data;
-                if (statusOn) {
-                    dataBuf.put(RadioConstant.ONE.getBytes());
-                } else {
-                    dataBuf.put(RadioConstant.ZERO.getBytes());
-                }
-                break;
-
-            case VOLUME:          // set integer item
-            case BASS:
-            case TREBLE:
-                // TODO: The commented out code below was an attempt to set integer based commands
-                // up or down, the way tune or seek is done.  It may be possible, but if so I don't have the
-                // correct constant.  It appears any value outside of the range 1-90 is automatically
-                // zero
-
-                //       Will attempt to reverse engineer the Radio controller in the future
-                /*if (data instanceof RadioConstant) {
-                    // Command is to tune up or down
-                    RadioConstant direction = (RadioConstant)data;
-                    if (!(direction == RadioConstant.UP || direction == RadioConstant.DOWN)) {
-                        Log.i(TAG, "Direction is not valid for tune command");
-                        return null;
-                    }
-                    dataBuf.put(RadioConstant.SEEK_REQUEST.getBytes());     // try seek request
-                    dataBuf.put(RadioConstant.ZERO.getBytes());
-                    dataBuf.put(direction.getBytes());
-                    break;
-                }*/
-            case HD_SUBCHANNEL:
-                if (!(data instanceof Integer)) {
-                    Timber.i("Invalid integer data received for command: %s", command.toString());
-                    return null;
-                }
-
-                int val = (int) data;
-
-                Timber.d("Setting value for %s: %d", command.toString(), val);
-
-                // Check to see if integer value is outside of range
-                if (val > 90) {
-                    val = 90;
-                } else if (val < 0) {
-                    val = 0;
-                }
-
-                dataBuf.putInt(val);
-                break;
-            case COMPRESSION:
-                // TODO: Not sure what kind of item is.  Linux app says its an integer, but it doesn't seem
-                //      to respond to integer settings.  It may not be possible to set it.
-                break;
-            case TUNE:
-                if (data instanceof RadioConstant) {
-                    // Command is to tune up or down
-                    RadioConstant direction = (RadioConstant)data;
-                    if (!(direction == RadioConstant.UP || direction == RadioConstant.DOWN)) {
-                        Timber.v("Direction is not valid for tune command");
-                        return null;
-                    }
-                    dataBuf.put(RadioConstant.ZERO.getBytes());     // pad with 8 zero bytes
-                    dataBuf.put(RadioConstant.ZERO.getBytes());
-                    dataBuf.put(direction.getBytes());
-                }
-                else if (data instanceof TuneInfo) {
-                    // Command is to tune directly to a station
-                    TuneInfo info = (TuneInfo)data;
-                    byte[] bandBytes = info.getBand().getBytes();
-                    if (bandBytes == null) {
-                        Timber.v("Band is not valid for tune command");
-                        return null;
-                    }
-                    dataBuf.put(bandBytes);
-                    dataBuf.putInt(info.getFrequency());
-                    dataBuf.put(RadioConstant.ZERO.getBytes()); // pad end with 4 zero bytes
-
-                } else {
-                    // The data is incorrect
-                    Timber.v("Data is not valid for tune command");
-                    return null;
-                }
-
-                break;
-            case SEEK:
-                if (!(data instanceof SeekData)) {
-                    // Seek must be a constant, up or down
-                    Timber.v("Invalid data received for command: %s", command.toString());
-                    return null;
-                }
-
-                SeekData seekData = (SeekData)data;
-                RadioConstant seekDir = seekData.getDirection();
-                if (!(seekDir == RadioConstant.UP ||
-                        seekDir == RadioConstant.DOWN)) {
-                    Timber.v("Direction is not valid for tune command");
-                    return null;
-                }
-                dataBuf.put(seekData.getBand().getBytes());  // Band Bytes (The HD Radio app uses SEEK_REQ_ID), the real controller uses band
-                dataBuf.put(RadioConstant.ZERO.getBytes());
-                dataBuf.put(seekDir.getBytes());
-
-                if (seekData.isSeekAll()) {
-                    // Seek all stations
-                    dataBuf.put(RadioConstant.ZERO.getBytes());
-                } else {
-                    // Seek only HD stations
-                    dataBuf.put(RadioConstant.ONE.getBytes());
-                }
-
-                break;
-            case RF_MODULATOR: {
-                // TODO: currently only setting to OFF.  Add functionality to turn on in the future
-                if (!(data instanceof  Integer)) {
-                    Timber.v("Invalid data received for command: %s", command.toString());
-                    return null;
-                }
-                dataBuf.put(RadioConstant.ZERO.getBytes());
-                dataBuf.putInt((int)data);
-                break;
-            }
-            default:
-                Timber.i("Invalid command, cannot set: %s", command);
-                return null;
-        }
-
-        dataBuf.flip();
-        byte[] returnBytes = new byte[dataBuf.limit()];
-        dataBuf.get(returnBytes);
-
-        return returnBytes;
-
-    }
-
     /**
      * Utility function for debug output, converts bytes into a string hex representation
      *
@@ -294,19 +232,19 @@ class RadioPacketBuilder {
      * @return          String of bytes represented as hex
      */
     public static String bytesToHexString(byte[] bytes) {
-        char[] hexChars = new char[bytes.length * 3];
-        for ( int j = 0; j < bytes.length; j++ ) {
-            int v = bytes[j] & 0xFF;
-            hexChars[j * 3] = HEXARRAY[v >>> 4];
-            hexChars[j * 3 + 1] = HEXARRAY[v & 0x0F];
-            if (j > 0 && j % 14 == 0 ) {
-                // newline every 15 bytes (15th byte is 14th index)
-                hexChars[j * 3 + 2] = '\n';
-            } else {
-                hexChars[j * 3 + 2] = ' ';
-            }
-        }
-        return new String(hexChars);
+        return bytesToHexString(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Converts the bytes between a buffer's position and limit into a string hex representation.
+     * The buffer's position is not changed.
+     *
+     * @param buffer    buffer containing the bytes to convert
+     * @return          String of bytes represented as hex
+     */
+    public static String bytesToHexString(ByteBuffer buffer) {
+        StringBuilder hex = new StringBuilder(buffer.remaining() * 3);
+        ProtocolTrace.appendHex(hex, buffer);
+        return hex.toString();
     }
-    final private static char[] HEXARRAY = "0123456789ABCDEF".toCharArray();
 }
@@ -3,9 +3,11 @@ package com.arksine.hdradiolib;
 import android.util.SparseArray;
 
 import com.arksine.hdradiolib.enums.RadioBand;
+import com.arksine.hdradiolib.enums.RadioCommand;
 
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -47,6 +49,32 @@ public class RadioValues {
     final AtomicInteger mTreble;
     final AtomicInteger mCompression;  // TODO:  Don't know what this is, you can't seem to be able to change it.
 
+    // Bits set (by RadioCommand ordinal) for values provided by the station cache that the
+    // radio has not yet confirmed
+    final AtomicInteger mCachedFields;
+
+    // Time of the last reply for each field (SystemClock.elapsedRealtime, by RadioCommand
+    // ordinal), 0 if the field hasn't been received since it was last cleared
+    private final AtomicLongArray mUpdateTimes;
+
+    // Fields that belong to the tuned station, cleared by setTune
+    private static final RadioCommand[] STATION_FIELDS = {
+            RadioCommand.SIGNAL_STRENGTH,
+            RadioCommand.HD_ACTIVE,
+            RadioCommand.HD_STREAM_LOCK,
+            RadioCommand.HD_SIGNAL_STRENGTH,
+            RadioCommand.HD_SUBCHANNEL,
+            RadioCommand.HD_SUBCHANNEL_COUNT,
+            RadioCommand.HD_TITLE,
+            RadioCommand.HD_ARTIST,
+            RadioCommand.HD_CALLSIGN,
+            RadioCommand.HD_STATION_NAME,
+            RadioCommand.RDS_ENABLED,
+            RadioCommand.RDS_GENRE,
+            RadioCommand.RDS_PROGRAM_SERVICE,
+            RadioCommand.RDS_RADIO_TEXT
+    };
+
     public RadioValues() {
 
         // TODO: should I persist and retreive values in this class?
@@ -76,10 +104,20 @@ public class RadioValues {
         mBass = new AtomicInteger(0);
         mTreble = new AtomicInteger(0);
         mCompression = new AtomicInteger(0);
+        mCachedFields = new AtomicInteger(0);
+        mUpdateTimes = new AtomicLongArray(RadioCommand.values().length);
 
     }
 
     void setTune(TuneInfo tune) {
+        this.setTune(tune, null);
+    }
+
+    /**
+     * Sets the tune, filling in provisional station values from the cache if available.  Cached
+     * values are flagged until the radio sends live values to replace them.
+     */
+    void setTune(TuneInfo tune, StationCache.Station cached) {
         // When tune is set, the variables below must be cleared
         mHdSubchannel.set(0);
         mHdSubchannelCount.set(0);
@@ -96,9 +134,67 @@ public class RadioValues {
         mHdArtists.clear();
         mHdTitles.clear();
 
+        for (RadioCommand command : STATION_FIELDS) {
+            mUpdateTimes.set(command.ordinal(), 0);
+        }
+
+        int cachedFields = 0;
+        if (cached != null) {
+            cachedFields |= setCached(mHdCallsign, cached.callsign, RadioCommand.HD_CALLSIGN);
+            cachedFields |= setCached(mHdStationName, cached.stationName,
+                    RadioCommand.HD_STATION_NAME);
+            cachedFields |= setCached(mRdsProgramService, cached.rdsProgramService,
+                    RadioCommand.RDS_PROGRAM_SERVICE);
+            cachedFields |= setCached(mRdsGenre, cached.rdsGenre, RadioCommand.RDS_GENRE);
+            if (cached.subchannelCount > 0) {
+                mHdSubchannelCount.set(cached.subchannelCount);
+                cachedFields |= fieldBit(RadioCommand.HD_SUBCHANNEL_COUNT);
+            }
+        }
+        mCachedFields.set(cachedFields);
+
         mTune.set(tune);
     }
 
+    private static int setCached(AtomicReference<String> field, String value,
+                                 RadioCommand command) {
+        if (value.isEmpty()) {
+            return 0;
+        }
+        field.set(value);
+        return fieldBit(command);
+    }
+
+    private static int fieldBit(RadioCommand command) {
+        return 1 << command.ordinal();
+    }
+
+    /**
+     * Marks a value as live, once the radio has sent it.
+     */
+    void confirmField(RadioCommand command) {
+        int bit = fieldBit(command);
+        int fields = mCachedFields.get();
+        while ((fields & bit) != 0 && !mCachedFields.compareAndSet(fields, fields & ~bit)) {
+            fields = mCachedFields.get();
+        }
+    }
+
+    void markUpdated(RadioCommand command, long time) {
+        mUpdateTimes.set(command.ordinal(), time);
+    }
+
+    /**
+     * @return  Time the field was last received from the radio, or 0 if it hasn't been
+     */
+    long getUpdateTime(RadioCommand command) {
+        return mUpdateTimes.get(command.ordinal());
+    }
+
+    boolean isCached(RadioCommand command) {
+        return (mCachedFields.get() & fieldBit(command)) != 0;
+    }
+
     void setHdSubchannel(int subchannel) {
         // when the subchannel is changed, the HD Title and Artist must be changed as well
         String title = mHdTitles.get(subchannel);
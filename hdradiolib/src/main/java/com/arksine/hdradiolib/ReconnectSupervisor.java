@@ -0,0 +1,221 @@
+package com.arksine.hdradiolib;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.usb.UsbManager;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.arksine.hdradiolib.drivers.RadioDriver;
+
+import timber.log.Timber;
+
+/**
+ * Reopens the radio device after it has been lost, for example when a flaky USB hub briefly drops
+ * the connection.  Attempts are made with exponential backoff, and immediately whenever a USB
+ * device is attached.  Once the device is open again, HDRadio is asked to restore the radio state.
+ *
+ * All methods must be called from the control handler's looper.
+ */
+
+class ReconnectSupervisor {
+
+    private static final long INITIAL_BACKOFF = 250;
+    private static final long MAX_BACKOFF = 8000;
+    private static final int DEFAULT_MAX_ATTEMPTS = 12;
+
+    // A link this poor when lost is likely to drop again at once, so the first attempt waits longer
+    private static final int POOR_LINK_QUALITY = 50;
+    private static final long POOR_LINK_BACKOFF = 1000;
+
+    /**
+     * Callback for the HDRadio class, executed after a lost device has been reopened.
+     */
+    interface ReconnectEvents {
+        void onReconnected(boolean restorePower);
+    }
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final RadioMetrics mMetrics;
+    private final LinkMetrics mLinkMetrics;
+    private final ReconnectEvents mReconnectEvents;
+    private RadioDriver mRadioDriver;
+
+    private int mMaxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private boolean mReconnecting = false;
+    private boolean mAttemptPending = false;
+    private boolean mRestorePower = false;
+    private String mDeviceId = null;
+    private int mAttemptCount = 0;
+    private long mBackoff = INITIAL_BACKOFF;
+    private long mLostTime = 0;
+    private volatile boolean mReceiverRegistered = false;
+
+    private final Runnable mAttemptRunnable = new Runnable() {
+        @Override
+        public void run() {
+            ReconnectSupervisor.this.attemptReconnect();
+        }
+    };
+
+    private final BroadcastReceiver mAttachReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (UsbManager.ACTION_USB_DEVICE_ATTACHED.equals(intent.getAction())) {
+                // A device was attached, skip the remaining backoff
+                ReconnectSupervisor.this.mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        ReconnectSupervisor.this.onDeviceAttached();
+                    }
+                });
+            }
+        }
+    };
+
+    ReconnectSupervisor(@NonNull Context context, @NonNull Handler handler,
+                        @NonNull RadioMetrics metrics, @NonNull LinkMetrics linkMetrics,
+                        @NonNull ReconnectEvents events) {
+        this.mContext = context;
+        this.mHandler = handler;
+        this.mMetrics = metrics;
+        this.mLinkMetrics = linkMetrics;
+        this.mReconnectEvents = events;
+    }
+
+    void setDriver(RadioDriver driver) {
+        this.mRadioDriver = driver;
+    }
+
+    void setMaxAttempts(int maxAttempts) {
+        this.mMaxAttempts = maxAttempts;
+    }
+
+    boolean isReconnecting() {
+        return this.mReconnecting;
+    }
+
+    /**
+     * Starts reconnecting to the device that was lost.
+     *
+     * @param deviceId      Identifier of the lost device, passed to the driver's openById
+     * @param restorePower  true if the radio was powered on when the connection was lost
+     */
+    void onConnectionLost(String deviceId, boolean restorePower) {
+        if (this.mReconnecting) {
+            return;
+        }
+
+        Timber.i("Connection lost, starting reconnect supervisor");
+        this.mReconnecting = true;
+        this.mDeviceId = deviceId;
+        this.mRestorePower = restorePower;
+        this.mAttemptCount = 0;
+        this.mBackoff = INITIAL_BACKOFF;
+        this.mLostTime = SystemClock.elapsedRealtime();
+
+        int linkQuality = this.mLinkMetrics.getLinkQuality();
+        if (linkQuality < POOR_LINK_QUALITY) {
+            Timber.i("Link quality was %d when lost, delaying first attempt", linkQuality);
+            this.mBackoff = POOR_LINK_BACKOFF;
+        }
+
+        if (!this.mReceiverRegistered) {
+            this.mContext.registerReceiver(this.mAttachReceiver,
+                    new IntentFilter(UsbManager.ACTION_USB_DEVICE_ATTACHED));
+            this.mReceiverRegistered = true;
+        }
+
+        this.mHandler.postDelayed(this.mAttemptRunnable, this.mBackoff);
+    }
+
+    /**
+     * Receives the result of the driver's open call while reconnecting
+     */
+    void onOpenResult(boolean success) {
+        if (!this.mReconnecting) {
+            return;
+        }
+
+        this.mAttemptPending = false;
+        if (success) {
+            long reconnectTime = SystemClock.elapsedRealtime() - this.mLostTime;
+            Timber.i("Reconnected after %d attempts, %d ms", this.mAttemptCount, reconnectTime);
+            this.mMetrics.recordReconnectSuccess(reconnectTime);
+
+            // Errors from before the loss say nothing about the new connection
+            this.mLinkMetrics.resetQuality();
+            boolean restorePower = this.mRestorePower;
+            this.stop();
+            this.mReconnectEvents.onReconnected(restorePower);
+        } else {
+            this.scheduleNextAttempt();
+        }
+    }
+
+    /**
+     * Stops reconnecting, for example when the application closes the radio
+     */
+    void cancel() {
+        if (this.mReconnecting) {
+            Timber.i("Reconnect cancelled");
+            this.stop();
+        }
+    }
+
+    private void stop() {
+        this.mReconnecting = false;
+        this.mAttemptPending = false;
+        this.mHandler.removeCallbacks(this.mAttemptRunnable);
+
+        if (this.mReceiverRegistered) {
+            this.mContext.unregisterReceiver(this.mAttachReceiver);
+            this.mReceiverRegistered = false;
+        }
+    }
+
+    private void onDeviceAttached() {
+        if (!this.mReconnecting) {
+            return;
+        }
+
+        this.mBackoff = INITIAL_BACKOFF;
+        if (!this.mAttemptPending) {
+            this.mHandler.removeCallbacks(this.mAttemptRunnable);
+            this.mHandler.post(this.mAttemptRunnable);
+        }
+    }
+
+    private void attemptReconnect() {
+        if (!this.mReconnecting || this.mAttemptPending) {
+            return;
+        }
+
+        if (this.mRadioDriver.isOpen()) {
+            this.onOpenResult(true);
+            return;
+        }
+
+        this.mAttemptCount++;
+        this.mAttemptPending = true;
+        this.mMetrics.recordReconnectAttempt();
+        Timber.d("Reconnect attempt %d", this.mAttemptCount);
+        this.mRadioDriver.openById(this.mDeviceId);
+    }
+
+    private void scheduleNextAttempt() {
+        if (this.mAttemptCount >= this.mMaxAttempts) {
+            Timber.w("Unable to reconnect after %d attempts, giving up", this.mAttemptCount);
+            this.mMetrics.recordReconnectFailure();
+            this.stop();
+            return;
+        }
+
+        this.mBackoff = Math.min(this.mBackoff * 2, MAX_BACKOFF);
+        this.mHandler.postDelayed(this.mAttemptRunnable, this.mBackoff);
+    }
+}
@@ -0,0 +1,146 @@
+package com.arksine.hdradiolib;
+
+import android.os.Handler;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * Periodically requests signal strength from the radio (HD signal strength while HD is active).
+ * The poll interval starts at its minimum after every tune and doubles while readings are
+ * stable, up to the maximum.  A reading that differs from the previous one by more than the
+ * fluctuation threshold drops the interval back to the minimum.
+ *
+ * In on demand mode polling pauses whenever no subscriber is registered.
+ */
+
+class SignalPoller implements Runnable {
+
+    static final long DEFAULT_MIN_INTERVAL = 800;
+    static final long DEFAULT_MAX_INTERVAL = 6400;
+    private static final int FLUCTUATION_THRESHOLD = 2;
+
+    /**
+     * Implemented by the HDRadio class to write the actual request
+     */
+    interface PollRequester {
+        void requestSignalStrength(boolean hdActive);
+    }
+
+    private final Handler mHandler;
+    private final RadioValues mRadioValues;
+    private final RadioMetrics mMetrics;
+    private final PollRequester mRequester;
+    private final AtomicInteger mSubscribers = new AtomicInteger(0);
+
+    private volatile long mMinInterval = DEFAULT_MIN_INTERVAL;
+    private volatile long mMaxInterval = DEFAULT_MAX_INTERVAL;
+    private volatile boolean mOnDemand = false;
+    private volatile boolean mActive = false;
+    private volatile boolean mPaused = false;
+    private volatile long mInterval = DEFAULT_MIN_INTERVAL;
+    private volatile int mLastReading = -1;
+    private volatile boolean mLastHdActive = false;
+
+    SignalPoller(@NonNull Handler handler, @NonNull RadioValues values,
+                 @NonNull RadioMetrics metrics, @NonNull PollRequester requester) {
+        this.mHandler = handler;
+        this.mRadioValues = values;
+        this.mMetrics = metrics;
+        this.mRequester = requester;
+    }
+
+    void setIntervalBounds(long minInterval, long maxInterval) {
+        this.mMinInterval = Math.max(minInterval, 1);
+        this.mMaxInterval = Math.max(maxInterval, this.mMinInterval);
+    }
+
+    void setOnDemand(boolean onDemand) {
+        this.mOnDemand = onDemand;
+        this.resumeIfNeeded();
+    }
+
+    void addSubscriber() {
+        this.mSubscribers.incrementAndGet();
+        this.resumeIfNeeded();
+    }
+
+    void removeSubscriber() {
+        if (this.mSubscribers.decrementAndGet() < 0) {
+            this.mSubscribers.set(0);
+        }
+    }
+
+    /**
+     * Starts polling at the minimum interval, called after the radio has been tuned
+     *
+     * @param delay     time to wait before the first request
+     */
+    void start(long delay) {
+        this.mHandler.removeCallbacks(this);
+        this.mActive = true;
+        this.mPaused = false;
+        this.mInterval = this.mMinInterval;
+        this.mLastReading = -1;
+        this.mHandler.postDelayed(this, delay);
+    }
+
+    void stop() {
+        this.mActive = false;
+        this.mPaused = false;
+        this.mHandler.removeCallbacks(this);
+    }
+
+    private boolean hasDemand() {
+        return !this.mOnDemand || this.mSubscribers.get() > 0;
+    }
+
+    private void resumeIfNeeded() {
+        if (this.mActive && this.mPaused && this.hasDemand()) {
+            this.mPaused = false;
+            this.mInterval = this.mMinInterval;
+            this.mHandler.removeCallbacks(this);
+            this.mHandler.post(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        if (!this.mActive) {
+            return;
+        }
+
+        if (!this.hasDemand()) {
+            Timber.v("No signal strength subscribers, pausing poll");
+            this.mPaused = true;
+            return;
+        }
+
+        boolean hdActive = this.mRadioValues.mHdActive.get();
+        this.adjustInterval(hdActive);
+        this.mRequester.requestSignalStrength(hdActive);
+        this.mMetrics.recordSignalPoll(hdActive);
+
+        this.mHandler.postDelayed(this, this.mInterval);
+    }
+
+    /**
+     * Compares the reading received for the previous request with the one before it.
+     */
+    private void adjustInterval(boolean hdActive) {
+        int reading = hdActive ? this.mRadioValues.mHdSignalStrength.get() :
+                this.mRadioValues.mSignalStrength.get();
+
+        if (this.mLastReading < 0 || hdActive != this.mLastHdActive ||
+                Math.abs(reading - this.mLastReading) > FLUCTUATION_THRESHOLD) {
+            this.mInterval = this.mMinInterval;
+        } else {
+            this.mInterval = Math.min(this.mInterval * 2, this.mMaxInterval);
+        }
+
+        this.mLastReading = reading;
+        this.mLastHdActive = hdActive;
+    }
+}
@@ -0,0 +1,250 @@
+package com.arksine.hdradiolib;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.util.SparseIntArray;
+
+import com.arksine.hdradiolib.enums.RadioBand;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import timber.log.Timber;
+
+/**
+ * Append only journal of the radio state restored at power on.  Each confirmed change is
+ * appended as a small checksummed record shortly after it arrives, so the state survives a
+ * crash or a lost connection without rewriting the whole preference file.  When the journal
+ * grows past a limit it is compacted to one record per key.
+ *
+ * Record format, 6 bytes:
+ *  0   byte    key
+ *  1   int     value (big endian)
+ *  5   byte    checksum, the inverted sum of bytes 0 - 4
+ *
+ * A torn or corrupt record ends the replay, anything valid before it is kept.  The journal is
+ * then rewritten before the next record is appended, so new records don't land after the
+ * damaged tail.
+ *
+ * record() may be called from any thread.  Writes are done on the storage handler's thread.
+ */
+
+class StateJournal {
+
+    static final int KEY_TUNE = 1;
+    static final int KEY_VOLUME = 2;
+    static final int KEY_BASS = 3;
+    static final int KEY_TREBLE = 4;
+    static final int KEY_SEEKALL = 5;
+
+    private static final int RECORD_SIZE = 6;
+    private static final int COMPACT_THRESHOLD = 512;     // records
+    private static final long WRITE_DELAY = 500;
+
+    private final File mJournalFile;
+    private final Handler mStorageHandler;
+
+    // Latest value for each key, and the keys changed since the last write
+    private final SparseIntArray mValues = new SparseIntArray(8);
+    private final SparseIntArray mPending = new SparseIntArray(8);
+    private int mRecordCount = 0;
+    private boolean mLoaded = false;
+    private boolean mNeedsCompaction = false;
+
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            StateJournal.this.writePending();
+        }
+    };
+
+    StateJournal(@NonNull File journalFile, @NonNull Looper storageLooper) {
+        this.mJournalFile = journalFile;
+        this.mStorageHandler = new Handler(storageLooper);
+    }
+
+    static int packTune(TuneInfo tune) {
+        return (tune.getBand().ordinal() << 24) | ((tune.getSubChannel() & 0xFF) << 16) |
+                (tune.getFrequency() & 0xFFFF);
+    }
+
+    static TuneInfo unpackTune(int value) {
+        int band = (value >>> 24) & 0xFF;
+        if (band >= RadioBand.values().length) {
+            return null;
+        }
+        return new TuneInfo(RadioBand.values()[band], value & 0xFFFF, (value >> 16) & 0xFF);
+    }
+
+    /**
+     * Records a confirmed value.  Unchanged values are not written.
+     */
+    void record(int key, int value) {
+        synchronized (this) {
+            if (this.mLoaded && this.mValues.indexOfKey(key) >= 0 &&
+                    this.mValues.get(key) == value) {
+                return;
+            }
+            this.mValues.put(key, value);
+            this.mPending.put(key, value);
+        }
+
+        // Debounced, so a burst of changes (a volume slider for example) is one write
+        this.mStorageHandler.removeCallbacks(this.mWriteRunnable);
+        this.mStorageHandler.postDelayed(this.mWriteRunnable, WRITE_DELAY);
+    }
+
+    /**
+     * Writes pending records immediately
+     */
+    void flush() {
+        this.mStorageHandler.removeCallbacks(this.mWriteRunnable);
+        this.mStorageHandler.post(this.mWriteRunnable);
+    }
+
+    /**
+     * Reads the journal.  Values recorded since startup take precedence over those in the file.
+     *
+     * @return  the latest value of each key found
+     */
+    synchronized SparseIntArray replay() {
+        if (!this.mLoaded) {
+            this.load();
+        }
+        return this.mValues.clone();
+    }
+
+    private void load() {
+        SparseIntArray recent = this.mValues.clone();
+        this.mValues.clear();
+        this.mRecordCount = 0;
+
+        if (this.mJournalFile.exists()) {
+            byte[] data = new byte[(int) Math.min(this.mJournalFile.length(), Integer.MAX_VALUE)];
+            FileInputStream in = null;
+            int length = 0;
+            try {
+                in = new FileInputStream(this.mJournalFile);
+                int read;
+                while (length < data.length &&
+                        (read = in.read(data, length, data.length - length)) > 0) {
+                    length += read;
+                }
+            } catch (IOException e) {
+                Timber.w(e, "Unable to read state journal");
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+
+            if (length % RECORD_SIZE != 0) {
+                Timber.w("State journal ends with a partial record");
+                this.mNeedsCompaction = true;
+            }
+
+            for (int offset = 0; offset + RECORD_SIZE <= length; offset += RECORD_SIZE) {
+                if (checksum(data, offset) != data[offset + RECORD_SIZE - 1]) {
+                    Timber.w("Corrupt state journal record at %d, %d records replayed",
+                            offset, this.mRecordCount);
+                    this.mNeedsCompaction = true;
+                    break;
+                }
+                int value = ((data[offset + 1] & 0xFF) << 24) | ((data[offset + 2] & 0xFF) << 16) |
+                        ((data[offset + 3] & 0xFF) << 8) | (data[offset + 4] & 0xFF);
+                this.mValues.put(data[offset], value);
+                this.mRecordCount++;
+            }
+        }
+
+        for (int i = 0; i < recent.size(); i++) {
+            this.mValues.put(recent.keyAt(i), recent.valueAt(i));
+        }
+        this.mLoaded = true;
+    }
+
+    private static byte checksum(byte[] data, int offset) {
+        int sum = 0;
+        for (int i = 0; i < RECORD_SIZE - 1; i++) {
+            sum += data[offset + i] & 0xFF;
+        }
+        return (byte) ~sum;
+    }
+
+    private static void encode(byte[] data, int offset, int key, int value) {
+        data[offset] = (byte) key;
+        data[offset + 1] = (byte) (value >> 24);
+        data[offset + 2] = (byte) (value >> 16);
+        data[offset + 3] = (byte) (value >> 8);
+        data[offset + 4] = (byte) value;
+        data[offset + 5] = checksum(data, offset);
+    }
+
+    private void writePending() {
+        byte[] data;
+        boolean compact;
+        synchronized (this) {
+            if (!this.mLoaded) {
+                // A corrupt tail must be dropped before appending, so the journal is read first
+                this.load();
+            }
+
+            compact = this.mNeedsCompaction ||
+                    this.mRecordCount + this.mPending.size() >= COMPACT_THRESHOLD;
+            SparseIntArray source = compact ? this.mValues : this.mPending;
+            if (source.size() == 0) {
+                return;
+            }
+
+            data = new byte[source.size() * RECORD_SIZE];
+            for (int i = 0; i < source.size(); i++) {
+                encode(data, i * RECORD_SIZE, source.keyAt(i), source.valueAt(i));
+            }
+            this.mPending.clear();
+            this.mRecordCount = compact ? source.size() : this.mRecordCount + source.size();
+        }
+
+        if (compact) {
+            File tmpFile = new File(this.mJournalFile.getPath() + ".tmp");
+            if (this.write(tmpFile, data, false)) {
+                if (tmpFile.renameTo(this.mJournalFile)) {
+                    synchronized (this) {
+                        this.mNeedsCompaction = false;
+                    }
+                } else {
+                    Timber.w("Unable to replace state journal");
+                }
+            }
+        } else {
+            this.write(this.mJournalFile, data, true);
+        }
+    }
+
+    private boolean write(File file, byte[] data, boolean append) {
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(file, append);
+            out.write(data);
+            out.getFD().sync();
+            return true;
+        } catch (IOException e) {
+            Timber.w(e, "Unable to write state journal");
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
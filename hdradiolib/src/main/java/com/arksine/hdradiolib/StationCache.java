@@ -0,0 +1,266 @@
+package com.arksine.hdradiolib;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import com.arksine.hdradiolib.enums.RadioBand;
+import com.arksine.hdradiolib.enums.RadioCommand;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Bounded LRU cache of station metadata keyed by band, frequency and subchannel.  Entries are
+ * updated from radio replies on the data handler's thread and looked up when a tune reply
+ * arrives, so the last known callsign, station name and RDS info can be shown before the radio
+ * re-sends them.  The cache is loaded from and saved to a file on the storage handler's thread.
+ */
+
+class StationCache {
+
+    private static final int MAX_ENTRIES = 64;
+    private static final int FILE_VERSION = 1;
+    private static final long SAVE_DELAY = 5000;
+
+    static class Station {
+        String callsign = "";
+        String stationName = "";
+        String rdsProgramService = "";
+        String rdsGenre = "";
+        int subchannelCount = 0;
+
+        Station copy() {
+            Station entry = new Station();
+            entry.callsign = this.callsign;
+            entry.stationName = this.stationName;
+            entry.rdsProgramService = this.rdsProgramService;
+            entry.rdsGenre = this.rdsGenre;
+            entry.subchannelCount = this.subchannelCount;
+            return entry;
+        }
+    }
+
+    private final LinkedHashMap<Integer, Station> mEntries =
+            new LinkedHashMap<Integer, Station>(MAX_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Station> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+
+    private final File mCacheFile;
+    private final Handler mStorageHandler;
+    private final Runnable mSaveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            StationCache.this.save();
+        }
+    };
+
+    StationCache(@NonNull File cacheFile, @NonNull Looper storageLooper) {
+        this.mCacheFile = cacheFile;
+        this.mStorageHandler = new Handler(storageLooper);
+        this.mStorageHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                StationCache.this.load();
+            }
+        });
+    }
+
+    private static int makeKey(RadioBand band, int frequency, int subchannel) {
+        // Frequency fits in 16 bits for both bands, subchannels are 0 - 8
+        return (band.ordinal() << 24) | ((subchannel & 0xFF) << 16) | (frequency & 0xFFFF);
+    }
+
+    /**
+     * Returns a copy of the cached metadata for a tune.  If the subchannel has no entry the
+     * main channel's entry is used instead.
+     *
+     * @return  the cached entry, or null if the station has not been seen
+     */
+    synchronized Station lookup(@NonNull TuneInfo tune) {
+        Station entry = this.mEntries.get(makeKey(tune.getBand(), tune.getFrequency(),
+                tune.getSubChannel()));
+        if (entry == null && tune.getSubChannel() > 0) {
+            entry = this.mEntries.get(makeKey(tune.getBand(), tune.getFrequency(), 0));
+        }
+        return (entry != null) ? entry.copy() : null;
+    }
+
+    /**
+     * Stores a live value for the given tune.  Only HD_CALLSIGN, HD_STATION_NAME,
+     * RDS_PROGRAM_SERVICE, RDS_GENRE and HD_SUBCHANNEL_COUNT are cached.
+     */
+    void update(@NonNull TuneInfo tune, @NonNull RadioCommand command, Object value) {
+        // Don't let a blank reply erase metadata that was previously received
+        if (value == null || "".equals(value) || Integer.valueOf(0).equals(value)) {
+            return;
+        }
+
+        int key = makeKey(tune.getBand(), tune.getFrequency(), tune.getSubChannel());
+        boolean changed;
+
+        synchronized (this) {
+            Station entry = this.mEntries.get(key);
+            if (entry == null) {
+                entry = new Station();
+                this.mEntries.put(key, entry);
+            }
+
+            switch (command) {
+                case HD_CALLSIGN:
+                    changed = !entry.callsign.equals(value);
+                    entry.callsign = (String) value;
+                    break;
+                case HD_STATION_NAME:
+                    changed = !entry.stationName.equals(value);
+                    entry.stationName = (String) value;
+                    break;
+                case RDS_PROGRAM_SERVICE:
+                    changed = !entry.rdsProgramService.equals(value);
+                    entry.rdsProgramService = (String) value;
+                    break;
+                case RDS_GENRE:
+                    changed = !entry.rdsGenre.equals(value);
+                    entry.rdsGenre = (String) value;
+                    break;
+                case HD_SUBCHANNEL_COUNT:
+                    changed = entry.subchannelCount != (Integer) value;
+                    entry.subchannelCount = (Integer) value;
+                    break;
+                default:
+                    return;
+            }
+        }
+
+        if (changed) {
+            this.scheduleSave();
+        }
+    }
+
+    /**
+     * Writes pending changes now, rather than waiting for the save delay.
+     */
+    void flush() {
+        this.mStorageHandler.removeCallbacks(this.mSaveRunnable);
+        this.mStorageHandler.post(this.mSaveRunnable);
+    }
+
+    private void scheduleSave() {
+        // Metadata tends to arrive in bursts after a tune, so writes are debounced
+        this.mStorageHandler.removeCallbacks(this.mSaveRunnable);
+        this.mStorageHandler.postDelayed(this.mSaveRunnable, SAVE_DELAY);
+    }
+
+    private void load() {
+        if (!this.mCacheFile.exists()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.mCacheFile)));
+            if (in.readInt() != FILE_VERSION) {
+                Timber.i("Station cache version mismatch, discarding");
+                return;
+            }
+
+            int count = in.readInt();
+            LinkedHashMap<Integer, Station> loaded = new LinkedHashMap<>(count);
+            for (int i = 0; i < count; i++) {
+                int key = in.readInt();
+                Station entry = new Station();
+                entry.callsign = in.readUTF();
+                entry.stationName = in.readUTF();
+                entry.rdsProgramService = in.readUTF();
+                entry.rdsGenre = in.readUTF();
+                entry.subchannelCount = in.readInt();
+                loaded.put(key, entry);
+            }
+
+            synchronized (this) {
+                // Entries seen since startup are more recent than those on disk, so they are
+                // re-added last to keep them from being evicted first
+                LinkedHashMap<Integer, Station> recent = new LinkedHashMap<>(this.mEntries);
+                this.mEntries.clear();
+                for (Map.Entry<Integer, Station> item : loaded.entrySet()) {
+                    if (!recent.containsKey(item.getKey())) {
+                        this.mEntries.put(item.getKey(), item.getValue());
+                    }
+                }
+                this.mEntries.putAll(recent);
+            }
+        } catch (IOException e) {
+            Timber.w(e, "Unable to load station cache");
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private void save() {
+        ArrayList<Map.Entry<Integer, Station>> snapshot = new ArrayList<>();
+        synchronized (this) {
+            // Oldest first, so reloading preserves the LRU order
+            for (Map.Entry<Integer, Station> item : this.mEntries.entrySet()) {
+                snapshot.add(new AbstractMap.SimpleEntry<>(item.getKey(),
+                        item.getValue().copy()));
+            }
+        }
+
+        File tmpFile = new File(this.mCacheFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<Integer, Station> item : snapshot) {
+                Station entry = item.getValue();
+                out.writeInt(item.getKey());
+                out.writeUTF(entry.callsign);
+                out.writeUTF(entry.stationName);
+                out.writeUTF(entry.rdsProgramService);
+                out.writeUTF(entry.rdsGenre);
+                out.writeInt(entry.subchannelCount);
+            }
+            out.close();
+            out = null;
+
+            if (!tmpFile.renameTo(this.mCacheFile)) {
+                Timber.w("Unable to replace station cache file");
+            }
+        } catch (FileNotFoundException e) {
+            Timber.w(e, "Unable to open station cache file");
+        } catch (IOException e) {
+            Timber.w(e, "Unable to save station cache");
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package com.arksine.hdradiolib;
+
+import android.support.annotation.NonNull;
+
+import com.arksine.hdradiolib.enums.RadioBand;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * A fixed size database of stations the radio has received, stored as fixed length records in a
+ * memory mapped file.  Opening the database maps the file and indexes the records without
+ * copying them, and updates are written in place to the record they change.
+ *
+ * File layout (little endian):
+ *
+ * Header, 16 bytes:
+ *  0   int     magic ("HDSD")
+ *  4   short   version
+ *  6   short   record size
+ *  8   int     capacity (number of record slots)
+ *  12  int     reserved
+ *
+ * Record, 64 bytes:
+ *  0   byte    flags (bit 0 = in use, bit 1 = HD seen)
+ *  1   byte    band ordinal
+ *  2   short   frequency
+ *  4   byte    subchannel count
+ *  5   byte    reserved
+ *  6   short   signal sample count (saturates)
+ *  8   int     last signal strength
+ *  12  int     best signal strength
+ *  16  int     average signal strength
+ *  20  int     reserved
+ *  24  long    last seen (System.currentTimeMillis)
+ *  32  byte[16] callsign, ASCII, zero padded
+ *  48  byte[16] reserved
+ *
+ * Methods are synchronized and may be called from any thread, though writes are best made off
+ * the UI and radio threads.
+ */
+
+public class StationDatabase {
+
+    private static final int MAGIC = 0x44534448;    // "HDSD"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 64;
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final int FLAG_IN_USE = 0x01;
+    private static final int FLAG_HD = 0x02;
+
+    private static final int OFFSET_FLAGS = 0;
+    private static final int OFFSET_BAND = 1;
+    private static final int OFFSET_FREQUENCY = 2;
+    private static final int OFFSET_SUBCHANNELS = 4;
+    private static final int OFFSET_SAMPLES = 6;
+    private static final int OFFSET_LAST_SIGNAL = 8;
+    private static final int OFFSET_BEST_SIGNAL = 12;
+    private static final int OFFSET_AVG_SIGNAL = 16;
+    private static final int OFFSET_LAST_SEEN = 24;
+    private static final int OFFSET_CALLSIGN = 32;
+    private static final int CALLSIGN_LENGTH = 16;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * A copy of a station record
+     */
+    public static class Record {
+        private final RadioBand mBand;
+        private final int mFrequency;
+        private final int mSubchannelCount;
+        private final boolean mHdSeen;
+        private final String mCallsign;
+        private final int mLastSignal;
+        private final int mBestSignal;
+        private final int mAverageSignal;
+        private final int mSampleCount;
+        private final long mLastSeen;
+
+        private Record(MappedByteBuffer map, int offset) {
+            int flags = map.get(offset + OFFSET_FLAGS);
+            this.mBand = RadioBand.values()[map.get(offset + OFFSET_BAND)];
+            this.mFrequency = map.getShort(offset + OFFSET_FREQUENCY) & 0xFFFF;
+            this.mSubchannelCount = map.get(offset + OFFSET_SUBCHANNELS);
+            this.mHdSeen = (flags & FLAG_HD) != 0;
+            this.mSampleCount = map.getShort(offset + OFFSET_SAMPLES) & 0xFFFF;
+            this.mLastSignal = map.getInt(offset + OFFSET_LAST_SIGNAL);
+            this.mBestSignal = map.getInt(offset + OFFSET_BEST_SIGNAL);
+            this.mAverageSignal = map.getInt(offset + OFFSET_AVG_SIGNAL);
+            this.mLastSeen = map.getLong(offset + OFFSET_LAST_SEEN);
+            this.mCallsign = readCallsign(map, offset);
+        }
+
+        public RadioBand getBand() {
+            return this.mBand;
+        }
+
+        public int getFrequency() {
+            return this.mFrequency;
+        }
+
+        public int getSubchannelCount() {
+            return this.mSubchannelCount;
+        }
+
+        public boolean isHdSeen() {
+            return this.mHdSeen;
+        }
+
+        public String getCallsign() {
+            return this.mCallsign;
+        }
+
+        public int getLastSignal() {
+            return this.mLastSignal;
+        }
+
+        public int getBestSignal() {
+            return this.mBestSignal;
+        }
+
+        public int getAverageSignal() {
+            return this.mAverageSignal;
+        }
+
+        public int getSampleCount() {
+            return this.mSampleCount;
+        }
+
+        /**
+         * @return  Time the station was last received, from System.currentTimeMillis
+         */
+        public long getLastSeen() {
+            return this.mLastSeen;
+        }
+
+        public TuneInfo toTuneInfo() {
+            return new TuneInfo(this.mBand, this.mFrequency, 0);
+        }
+    }
+
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mMap;
+    private final int mCapacity;
+
+    // Maps band/frequency keys to record slots
+    private final HashMap<Integer, Integer> mIndex = new HashMap<>();
+
+    private StationDatabase(RandomAccessFile file, MappedByteBuffer map, int capacity) {
+        this.mFile = file;
+        this.mMap = map;
+        this.mCapacity = capacity;
+
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = recordOffset(slot);
+            if ((map.get(offset + OFFSET_FLAGS) & FLAG_IN_USE) != 0) {
+                int band = map.get(offset + OFFSET_BAND);
+                if (band < 0 || band >= RadioBand.values().length) {
+                    // Corrupt record, free the slot
+                    map.put(offset + OFFSET_FLAGS, (byte) 0);
+                    continue;
+                }
+                int frequency = map.getShort(offset + OFFSET_FREQUENCY) & 0xFFFF;
+                this.mIndex.put(makeKey(band, frequency), slot);
+            }
+        }
+    }
+
+    public static StationDatabase open(@NonNull File file) throws IOException {
+        return open(file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Opens a station database, creating it if it does not exist.  A file that is not a station
+     * database, or was created with a different record layout, is replaced.
+     *
+     * @param file      database file
+     * @param capacity  number of stations the database holds when created
+     */
+    public static StationDatabase open(@NonNull File file, int capacity) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            int existingCapacity = readCapacity(raf);
+            if (existingCapacity > 0) {
+                capacity = existingCapacity;
+            } else {
+                Timber.i("Creating station database, capacity %d", capacity);
+                raf.setLength(0);
+                raf.setLength(HEADER_SIZE + (long) capacity * RECORD_SIZE);
+            }
+
+            MappedByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) capacity * RECORD_SIZE);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (existingCapacity <= 0) {
+                map.putInt(0, MAGIC);
+                map.putShort(4, VERSION);
+                map.putShort(6, (short) RECORD_SIZE);
+                map.putInt(8, capacity);
+                map.putInt(12, 0);
+            }
+
+            return new StationDatabase(raf, map, capacity);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return  the capacity stored in a valid header, or 0 if the file must be (re)created
+     */
+    private static int readCapacity(RandomAccessFile raf) throws IOException {
+        if (raf.length() < HEADER_SIZE) {
+            return 0;
+        }
+
+        byte[] header = new byte[HEADER_SIZE];
+        raf.seek(0);
+        raf.readFully(header);
+        ByteBuffer buf = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+
+        int capacity = buf.getInt(8);
+        if (buf.getInt(0) != MAGIC || buf.getShort(4) != VERSION ||
+                buf.getShort(6) != RECORD_SIZE || capacity <= 0 ||
+                raf.length() < HEADER_SIZE + (long) capacity * RECORD_SIZE) {
+            Timber.w("Invalid station database header, recreating");
+            return 0;
+        }
+        return capacity;
+    }
+
+    private static int makeKey(int band, int frequency) {
+        return (band << 16) | (frequency & 0xFFFF);
+    }
+
+    private static int recordOffset(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    private static String readCallsign(MappedByteBuffer map, int offset) {
+        byte[] bytes = new byte[CALLSIGN_LENGTH];
+        int length = 0;
+        while (length < CALLSIGN_LENGTH) {
+            byte b = map.get(offset + OFFSET_CALLSIGN + length);
+            if (b == 0) {
+                break;
+            }
+            bytes[length++] = b;
+        }
+        return new String(bytes, 0, length, ASCII);
+    }
+
+    public synchronized int size() {
+        return this.mIndex.size();
+    }
+
+    public int getCapacity() {
+        return this.mCapacity;
+    }
+
+    /**
+     * @return  the record for a station, or null if it is not in the database
+     */
+    public synchronized Record lookup(@NonNull RadioBand band, int frequency) {
+        Integer slot = this.mIndex.get(makeKey(band.ordinal(), frequency));
+        return (slot != null) ? new Record(this.mMap, recordOffset(slot)) : null;
+    }
+
+    /**
+     * @return  all stations in the database, in band and frequency order
+     */
+    public synchronized List<Record> getStations() {
+        ArrayList<Record> records = new ArrayList<>(this.mIndex.size());
+        for (int slot = 0; slot < this.mCapacity; slot++) {
+            int offset = recordOffset(slot);
+            if ((this.mMap.get(offset + OFFSET_FLAGS) & FLAG_IN_USE) != 0) {
+                records.add(new Record(this.mMap, offset));
+            }
+        }
+
+        Collections.sort(records, new Comparator<Record>() {
+            @Override
+            public int compare(Record lhs, Record rhs) {
+                if (lhs.mBand != rhs.mBand) {
+                    return lhs.mBand.ordinal() - rhs.mBand.ordinal();
+                }
+                return lhs.mFrequency - rhs.mFrequency;
+            }
+        });
+        return records;
+    }
+
+    /**
+     * Records a signal strength sample for a station, adding it to the database if required.
+     */
+    public synchronized void recordSignal(@NonNull RadioBand band, int frequency, int signal,
+                                          boolean hdActive) {
+        int offset = this.obtainRecord(band, frequency);
+
+        int samples = this.mMap.getShort(offset + OFFSET_SAMPLES) & 0xFFFF;
+        int average = this.mMap.getInt(offset + OFFSET_AVG_SIGNAL);
+        if (samples == 0) {
+            average = signal;
+        } else {
+            // Running average over the first samples, then an exponential average so old
+            // reception conditions fade out
+            int weight = Math.min(samples, 15);
+            average = (average * weight + signal) / (weight + 1);
+        }
+
+        if (samples < 0xFFFF) {
+            this.mMap.putShort(offset + OFFSET_SAMPLES, (short) (samples + 1));
+        }
+        this.mMap.putInt(offset + OFFSET_LAST_SIGNAL, signal);
+        this.mMap.putInt(offset + OFFSET_AVG_SIGNAL, average);
+        if (samples == 0 || signal > this.mMap.getInt(offset + OFFSET_BEST_SIGNAL)) {
+            this.mMap.putInt(offset + OFFSET_BEST_SIGNAL, signal);
+        }
+        if (hdActive) {
+            this.mMap.put(offset + OFFSET_FLAGS,
+                    (byte) (this.mMap.get(offset + OFFSET_FLAGS) | FLAG_HD));
+        }
+        this.mMap.putLong(offset + OFFSET_LAST_SEEN, System.currentTimeMillis());
+    }
+
+    public synchronized void setCallsign(@NonNull RadioBand band, int frequency,
+                                         @NonNull String callsign) {
+        int offset = this.obtainRecord(band, frequency);
+        byte[] bytes = callsign.getBytes(ASCII);
+        for (int i = 0; i < CALLSIGN_LENGTH; i++) {
+            this.mMap.put(offset + OFFSET_CALLSIGN + i, (i < bytes.length) ? bytes[i] : 0);
+        }
+        this.mMap.put(offset + OFFSET_FLAGS,
+                (byte) (this.mMap.get(offset + OFFSET_FLAGS) | FLAG_HD));
+    }
+
+    public synchronized void setSubchannelCount(@NonNull RadioBand band, int frequency,
+                                                int count) {
+        int offset = this.obtainRecord(band, frequency);
+        this.mMap.put(offset + OFFSET_SUBCHANNELS, (byte) count);
+    }
+
+    public synchronized void remove(@NonNull RadioBand band, int frequency) {
+        Integer slot = this.mIndex.remove(makeKey(band.ordinal(), frequency));
+        if (slot != null) {
+            this.mMap.put(recordOffset(slot) + OFFSET_FLAGS, (byte) 0);
+        }
+    }
+
+    /**
+     * Forces changes to be written to storage.  The OS writes mapped changes back on its own,
+     * this only needs to be called when they must survive a crash or power loss.
+     */
+    public synchronized void flush() {
+        this.mMap.force();
+    }
+
+    public synchronized void close() {
+        this.mMap.force();
+        try {
+            this.mFile.close();
+        } catch (IOException e) {
+            Timber.w(e);
+        }
+    }
+
+    /**
+     * Finds the record for a station, creating it in a free slot if required.  When the
+     * database is full, the station that was seen longest ago is replaced.
+     *
+     * @return  offset of the record in the mapped file
+     */
+    private int obtainRecord(RadioBand band, int frequency) {
+        int key = makeKey(band.ordinal(), frequency);
+        Integer slot = this.mIndex.get(key);
+        if (slot != null) {
+            return recordOffset(slot);
+        }
+
+        int freeSlot = -1;
+        int oldestSlot = 0;
+        long oldestSeen = Long.MAX_VALUE;
+        for (int i = 0; i < this.mCapacity; i++) {
+            int offset = recordOffset(i);
+            if ((this.mMap.get(offset + OFFSET_FLAGS) & FLAG_IN_USE) == 0) {
+                freeSlot = i;
+                break;
+            }
+            long lastSeen = this.mMap.getLong(offset + OFFSET_LAST_SEEN);
+            if (lastSeen < oldestSeen) {
+                oldestSeen = lastSeen;
+                oldestSlot = i;
+            }
+        }
+
+        if (freeSlot < 0) {
+            freeSlot = oldestSlot;
+            int offset = recordOffset(freeSlot);
+            this.mIndex.remove(makeKey(this.mMap.get(offset + OFFSET_BAND),
+                    this.mMap.getShort(offset + OFFSET_FREQUENCY) & 0xFFFF));
+        }
+
+        int offset = recordOffset(freeSlot);
+        for (int i = 0; i < RECORD_SIZE; i++) {
+            this.mMap.put(offset + i, (byte) 0);
+        }
+        this.mMap.put(offset + OFFSET_BAND, (byte) band.ordinal());
+        this.mMap.putShort(offset + OFFSET_FREQUENCY, (short) frequency);
+        this.mMap.putLong(offset + OFFSET_LAST_SEEN, System.currentTimeMillis());
+        this.mMap.put(offset + OFFSET_FLAGS, (byte) FLAG_IN_USE);
+        this.mIndex.put(key, freeSlot);
+        return offset;
+    }
+}
@@ -0,0 +1,169 @@
+package com.arksine.hdradiolib;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.arksine.hdradiolib.enums.RadioCommand;
+
+import timber.log.Timber;
+
+/**
+ * Selects an HD subchannel after a tune.  The radio can only switch to a subchannel once HD has
+ * locked and reported that the subchannel exists, so rather than resending the request blindly
+ * the acquirer waits for HD_ACTIVE, HD_STREAM_LOCK and HD_SUBCHANNEL_COUNT replies and sends the
+ * request as soon as the subchannel is available.  A slow fallback timer resends it a bounded
+ * number of times in case the replies never arrive.
+ *
+ * All methods except onReply must be called from the control handler's looper.
+ */
+
+class SubchannelAcquirer {
+
+    private static final long FALLBACK_INTERVAL = 2000;
+    private static final int MAX_FALLBACK_ATTEMPTS = 3;
+
+    /**
+     * Implemented by the HDRadio class to write requests to the radio
+     */
+    interface SubchannelRequester {
+        void setSubchannel(int subchannel);
+        void requestSubchannelCount();
+    }
+
+    private final Handler mHandler;
+    private final RadioValues mRadioValues;
+    private final RadioMetrics mMetrics;
+    private final SubchannelRequester mRequester;
+
+    private int mRequestedSubchannel = 0;
+    private long mRequestTime = 0;
+    private int mFallbackAttempts = 0;
+    private boolean mCountReceived = false;
+    private boolean mCountRequested = false;
+    private boolean mSetSent = false;
+
+    private final Runnable mFallbackRunnable = new Runnable() {
+        @Override
+        public void run() {
+            SubchannelAcquirer.this.onFallback();
+        }
+    };
+
+    SubchannelAcquirer(@NonNull Handler handler, @NonNull RadioValues values,
+                       @NonNull RadioMetrics metrics, @NonNull SubchannelRequester requester) {
+        this.mHandler = handler;
+        this.mRadioValues = values;
+        this.mMetrics = metrics;
+        this.mRequester = requester;
+    }
+
+    /**
+     * Starts acquiring a subchannel for the station that was just tuned
+     */
+    void request(int subchannel) {
+        this.cancel();
+        if (subchannel <= 0) {
+            return;
+        }
+
+        this.mRequestedSubchannel = subchannel;
+        this.mRequestTime = SystemClock.elapsedRealtime();
+        this.mFallbackAttempts = 0;
+        this.mCountReceived = false;
+        this.mCountRequested = false;
+        this.mSetSent = false;
+        this.mHandler.postDelayed(this.mFallbackRunnable, FALLBACK_INTERVAL);
+    }
+
+    void cancel() {
+        this.mRequestedSubchannel = 0;
+        this.mHandler.removeCallbacks(this.mFallbackRunnable);
+    }
+
+    /**
+     * Called from the data handler after a reply has been parsed and stored
+     */
+    void onReply(final RadioCommand command) {
+        switch (command) {
+            case HD_ACTIVE:
+            case HD_STREAM_LOCK:
+            case HD_SUBCHANNEL_COUNT:
+            case HD_SUBCHANNEL:
+                this.mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        SubchannelAcquirer.this.evaluate(command);
+                    }
+                });
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void evaluate(RadioCommand command) {
+        int requested = this.mRequestedSubchannel;
+        if (requested <= 0) {
+            return;
+        }
+
+        if (command == RadioCommand.HD_SUBCHANNEL) {
+            if (this.mRadioValues.mHdSubchannel.get() == requested) {
+                this.onAcquired();
+            }
+            return;
+        }
+
+        if (command == RadioCommand.HD_SUBCHANNEL_COUNT) {
+            // A new count may allow a request that was previously rejected
+            this.mCountReceived = true;
+            this.mSetSent = false;
+        }
+
+        if (this.mCountReceived) {
+            if (!this.mSetSent && this.mRadioValues.mHdSubchannelCount.get() >= requested) {
+                this.sendSet();
+            }
+        } else if (!this.mCountRequested && this.mRadioValues.mHdStreamLock.get()) {
+            // Locked, but the radio hasn't told us how many subchannels there are yet
+            this.mCountRequested = true;
+            this.mRequester.requestSubchannelCount();
+        }
+    }
+
+    private void sendSet() {
+        this.mSetSent = true;
+        this.mMetrics.recordSubchannelSet();
+        this.mRequester.setSubchannel(this.mRequestedSubchannel);
+    }
+
+    private void onAcquired() {
+        long elapsed = SystemClock.elapsedRealtime() - this.mRequestTime;
+        Timber.d("Subchannel %d acquired in %d ms", this.mRequestedSubchannel, elapsed);
+        this.mMetrics.recordSubchannelAcquired(elapsed);
+        this.cancel();
+    }
+
+    private void onFallback() {
+        if (this.mRequestedSubchannel <= 0) {
+            return;
+        }
+
+        if (this.mRadioValues.mHdSubchannel.get() == this.mRequestedSubchannel) {
+            this.onAcquired();
+            return;
+        }
+
+        if (this.mFallbackAttempts >= MAX_FALLBACK_ATTEMPTS) {
+            Timber.i("Unable to select subchannel %d", this.mRequestedSubchannel);
+            this.mMetrics.recordSubchannelFailure();
+            this.cancel();
+            return;
+        }
+
+        this.mFallbackAttempts++;
+        this.sendSet();
+        this.mHandler.postDelayed(this.mFallbackRunnable, FALLBACK_INTERVAL);
+    }
+}
@@ -0,0 +1,73 @@
+package com.arksine.hdradiolib;
+
+import android.support.annotation.NonNull;
+
+import com.arksine.hdradiolib.enums.RadioCommand;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Tracks the replies to a bulk update request.  Replies are reported from the data handler's
+ * thread and the timeout from the control handler's, so state is guarded by the batch itself.
+ */
+
+class UpdateBatch {
+
+    private final EnumSet<RadioCommand> mOutstanding;
+    private final EnumSet<RadioCommand> mReceived;
+    private final RadioController.UpdateListener mListener;
+    private boolean mDone = false;
+
+    UpdateBatch(@NonNull EnumSet<RadioCommand> commands, RadioController.UpdateListener listener) {
+        this.mOutstanding = EnumSet.copyOf(commands);
+        this.mReceived = EnumSet.noneOf(RadioCommand.class);
+        this.mListener = listener;
+    }
+
+    /**
+     * @return  true if the reply was the last one outstanding, completing the batch
+     */
+    synchronized boolean onReply(RadioCommand command) {
+        if (this.mDone || !this.mOutstanding.remove(command)) {
+            return false;
+        }
+
+        this.mReceived.add(command);
+        if (this.mOutstanding.isEmpty()) {
+            this.mDone = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Ends the batch with whatever replies have arrived
+     *
+     * @return  true if the batch was still waiting for replies
+     */
+    synchronized boolean expire() {
+        if (this.mDone) {
+            return false;
+        }
+        this.mDone = true;
+        return true;
+    }
+
+    /**
+     * Notifies the listener.  Called once, after onReply or expire has returned true.
+     */
+    void deliver() {
+        if (this.mListener == null) {
+            return;
+        }
+
+        Set<RadioCommand> received;
+        Set<RadioCommand> missing;
+        synchronized (this) {
+            received = EnumSet.copyOf(this.mReceived);
+            missing = EnumSet.copyOf(this.mOutstanding);
+        }
+        this.mListener.onUpdatesComplete(received, missing);
+    }
+}
@@ -0,0 +1,176 @@
+package com.arksine.hdradiolib;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * Ramps the volume to a target over a period of time.  Each write costs the radio link one
+ * command interval, so a ramp is reduced to at most one VOLUME SET per interval, and never more
+ * writes than there are volume levels between the start and the target.  Starting a new ramp,
+ * or setting the volume directly, supersedes a ramp in progress.
+ *
+ * start() must be called from the control handler's looper, cancel() and getTarget() may be
+ * called from any thread.
+ */
+
+public class VolumeRamp {
+
+    /**
+     * Shape of the ramp, mapping elapsed fraction of the duration to fraction of the volume change
+     */
+    public enum Curve {
+        LINEAR,
+        EASE_IN,        // slow start, suits fading in
+        EASE_OUT,       // slow finish, suits fading out
+        S_CURVE;
+
+        float apply(float x) {
+            switch (this) {
+                case EASE_IN:
+                    return x * x;
+                case EASE_OUT:
+                    return 1 - (1 - x) * (1 - x);
+                case S_CURVE:
+                    return x * x * (3 - 2 * x);
+                case LINEAR:
+                default:
+                    return x;
+            }
+        }
+    }
+
+    /**
+     * Implemented by the HDRadio class to write each step
+     */
+    interface RampRequester {
+        long getStepInterval();
+        void writeVolume(int volume);
+    }
+
+    private final Handler mHandler;
+    private final RampRequester mRequester;
+    private final AtomicInteger mGeneration = new AtomicInteger(0);
+
+    // Target of the ramp in progress, or -1
+    private volatile int mTarget = -1;
+
+    // Ramp in progress, only accessed on the control handler's looper
+    private int mRampGeneration = 0;
+    private int[] mValues = new int[0];
+    private long[] mTimes = new long[0];
+    private int mIndex = 0;
+    private long mStartTime = 0;
+
+    private final Runnable mStepRunnable = new Runnable() {
+        @Override
+        public void run() {
+            VolumeRamp.this.step();
+        }
+    };
+
+    VolumeRamp(@NonNull Handler handler, @NonNull RampRequester requester) {
+        this.mHandler = handler;
+        this.mRequester = requester;
+    }
+
+    /**
+     * Supersedes the ramp in progress, if any.
+     *
+     * @return  the generation a ramp started afterwards must be given
+     */
+    int supersede() {
+        this.mHandler.removeCallbacks(this.mStepRunnable);
+        this.mTarget = -1;
+        return this.mGeneration.incrementAndGet();
+    }
+
+    void cancel() {
+        this.supersede();
+    }
+
+    /**
+     * @return  the target of the ramp in progress, or -1 when there is none
+     */
+    int getTarget() {
+        return this.mTarget;
+    }
+
+    /**
+     * Marks a ramp to target as in progress before start() is called, for volume written ahead
+     * of the ramp such as the silence a power on fade starts from.
+     */
+    void prepare(int generation, int target) {
+        if (generation == this.mGeneration.get()) {
+            this.mTarget = target;
+        }
+    }
+
+    /**
+     * Starts a ramp.  Nothing is written if the generation has been superseded since it was
+     * obtained.
+     */
+    void start(int generation, int from, int target, long durationMs, @NonNull Curve curve) {
+        if (generation != this.mGeneration.get()) {
+            return;
+        }
+
+        this.mRampGeneration = generation;
+        this.mIndex = 0;
+        this.mValues = new int[0];
+
+        int delta = target - from;
+        if (delta == 0) {
+            this.mTarget = -1;
+            return;
+        }
+        this.mTarget = target;
+
+        // Fewest writes that still move one level at a time, limited to what the link sustains
+        long interval = this.mRequester.getStepInterval();
+        int steps = (int) Math.min(Math.abs(delta), Math.max(1, durationMs / interval));
+        int[] values = new int[steps];
+        long[] times = new long[steps];
+        int count = 0;
+        int previous = from;
+        for (int i = 1; i <= steps; i++) {
+            int value = (i == steps) ? target :
+                    from + Math.round(delta * curve.apply((float) i / steps));
+            if (value != previous) {
+                values[count] = value;
+                times[count] = durationMs * (i - 1) / steps;
+                count++;
+                previous = value;
+            }
+        }
+
+        this.mValues = new int[count];
+        this.mTimes = new long[count];
+        System.arraycopy(values, 0, this.mValues, 0, count);
+        System.arraycopy(times, 0, this.mTimes, 0, count);
+
+        Timber.d("Volume ramp %d -> %d over %d ms, %d writes", from, target, durationMs, count);
+        this.mStartTime = SystemClock.uptimeMillis();
+        this.step();
+    }
+
+    private void step() {
+        if (this.mRampGeneration != this.mGeneration.get() ||
+                this.mIndex >= this.mValues.length) {
+            return;
+        }
+
+        this.mRequester.writeVolume(this.mValues[this.mIndex]);
+        this.mIndex++;
+
+        if (this.mIndex < this.mValues.length) {
+            this.mHandler.postAtTime(this.mStepRunnable, this.mStartTime + this.mTimes[this.mIndex]);
+        } else {
+            this.mTarget = -1;
+        }
+    }
+}
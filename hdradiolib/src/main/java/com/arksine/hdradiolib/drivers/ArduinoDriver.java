@@ -17,6 +17,8 @@ import com.arksine.usbserialex.UsbSerialInterface;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import timber.log.Timber;
@@ -28,6 +30,10 @@ import timber.log.Timber;
 public class ArduinoDriver extends RadioDriver {
     private static final String ACTION_USB_PERMISSION = "com.arksine.hdradiolib.USB_PERMISSION";
     private static final String ACTION_USB_DETACHED = "android.hardware.usb.action.USB_DEVICE_DETACHED";
+    private static final long PROBE_ID_TIMEOUT = 1000;
+    private static final long READY_TIMEOUT = 1200;
+    private static final long CH34X_READY_TIMEOUT = 3000;
+    private static final long PROBE_TOTAL_TIMEOUT = 5000;
     private final Object OPEN_LOCK = new Object();
 
     private Context mContext;
@@ -37,6 +43,7 @@ public class ArduinoDriver extends RadioDriver {
     private volatile UsbDevice mUsbDevice;
     private UsbSerialDevice mSerialPort;
     private volatile boolean mDisconnectReceiverRegistered = false;
+    private volatile boolean mExtendedControl = false;
 
     private BroadcastReceiver mDisconnectReceiver = new BroadcastReceiver() {
         @Override
@@ -103,8 +110,7 @@ public class ArduinoDriver extends RadioDriver {
     public void close() {
         synchronized (OPEN_LOCK) {
             if (this.isOpen()) {
-                this.clearDtr();
-                this.clearRts();
+                this.setControlLines(false, false);
                 this.mSerialPort.close();
                 this.mIsConnected.set(false);
                 this.mSerialPort = null;
@@ -129,6 +135,20 @@ public class ArduinoDriver extends RadioDriver {
         return mSketchId;
     }
 
+    /**
+     * Enables the combined control line opcodes described below.  The sketch running on the
+     * MCU must support them, older sketches only understand the single line opcodes.
+     *
+     * @param enabled   true if the connected sketch supports the extended control protocol
+     */
+    public void setExtendedControlEnabled(boolean enabled) {
+        this.mExtendedControl = enabled;
+    }
+
+    public boolean isExtendedControlEnabled() {
+        return this.mExtendedControl;
+    }
+
     @Override
     public <T> ArrayList<T> getDeviceList(Class<T> listType) {
         UsbManager manager = (UsbManager) mContext.getSystemService(Context.USB_SERVICE);
@@ -165,7 +185,69 @@ public class ArduinoDriver extends RadioDriver {
      * be quickly and easily parsed.  We assume that no Packet will ever by 255 bytes long (IIRC the
      * longest packet sent is 27 bytes), so a Length byte of FF indicates that I am changing RTS
      * or DTS state.  The Arduino then raises/lowers the appropriate pin
+     *
+     * Pseudo-packets are A4 FF [opcode] [data...].  Opcodes understood by every sketch:
+     *  08 vv           - Set DTR, vv = 01 raise, 00 clear
+     *  09 vv           - Set RTS, vv = 01 raise, 00 clear
+     *  10 00           - Request the sketch ID, answered with <HDxxxxxx>
+     *
+     * Extended control protocol, used when setExtendedControlEnabled(true) is set:
+     *  0A mm           - Set RTS and DTR in one step. mm bit 0 = RTS, bit 1 = DTR.
+     *  0B nn [mm ll hh]*nn
+     *                  - Run a sequence of nn steps (1 to 16).  Each step sets both lines from
+     *                    mm as above, then waits (hh << 8 | ll) milliseconds before the next.
+     *
+     * The data bytes of the extended opcodes are raw, not escaped.  The sketch must read exactly
+     * the number of bytes given by the opcode and nn, and ignore any 0xA4 value among them.
+     * While a sequence runs the sketch should leave incoming serial data in its receive buffer,
+     * the host doesn't write again until the sequence's total delay has passed.
      */
+    @Override
+    public void setControlLines(boolean rts, boolean dtr) {
+        if (!this.mExtendedControl) {
+            super.setControlLines(rts, dtr);
+            return;
+        }
+
+        int mask = (rts ? ControlSequence.LINE_RTS : 0) | (dtr ? ControlSequence.LINE_DTR : 0);
+        byte[] packet = {(byte)0xA4, (byte)0xFF, (byte)0x0A, (byte)mask};
+        this.writeData(packet);
+        try {
+            Thread.sleep(20);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void runControlSequence(ControlSequence sequence) {
+        int stepCount = sequence.getStepCount();
+        if (!this.mExtendedControl || stepCount == 0) {
+            super.runControlSequence(sequence);
+            return;
+        }
+
+        byte[] packet = new byte[4 + stepCount * 3];
+        packet[0] = (byte)0xA4;
+        packet[1] = (byte)0xFF;
+        packet[2] = (byte)0x0B;
+        packet[3] = (byte)stepCount;
+        for (int i = 0; i < stepCount; i++) {
+            int delay = sequence.getDelay(i);
+            packet[4 + i * 3] = (byte)sequence.getLineMask(i);
+            packet[5 + i * 3] = (byte)(delay & 0xFF);
+            packet[6 + i * 3] = (byte)((delay >> 8) & 0xFF);
+        }
+        this.writeData(packet);
+
+        // Wait for the MCU to finish the sequence before anything else is written
+        try {
+            Thread.sleep(sequence.getTotalDelay() + 20);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
     @Override
     public void raiseRts() {
         byte[] packet = {(byte)0xA4, (byte)0xFF, (byte)0x09, (byte)0x01};
@@ -211,9 +293,13 @@ public class ArduinoDriver extends RadioDriver {
     }
 
     /**
-     * Class to connect to MJS Gadgets HD Radio cable.  It extends Thread because this thread needs
-     * to run in the foreground.  All other threads launched in the HDRadio class can be Runnables
-     * managed by the ExecutorService, which run in the background.
+     * Class to connect to an Arduino running the hdradiodriver sketch.  It extends Thread because
+     * this thread needs to run in the foreground.  All other threads launched in the HDRadio class
+     * can be Runnables managed by the ExecutorService, which run in the background.
+     *
+     * Every attached device is probed concurrently by a DeviceProbe, so the time it takes to open
+     * is bounded by the slowest single probe rather than the sum of all probes.  The first device
+     * returning a matching ID wins, the remaining probes are cancelled and their ports closed.
      */
     private class ConnectionThread extends Thread {
 
@@ -221,8 +307,11 @@ public class ArduinoDriver extends RadioDriver {
         private UsbManager mUsbManager;
         private AtomicBoolean mIsWaiting = new AtomicBoolean(false);
         private AtomicBoolean mUsbPermissonGranted = new AtomicBoolean(false);
-        private AtomicBoolean mIdValid = new AtomicBoolean(false);
-        private String mIncomingId;
+
+        // Probe results, guarded by ConnectionThread.this
+        private CountDownLatch mProbeLatch;
+        private int mRemainingProbes = 0;
+        private DeviceProbe mWinningProbe = null;
 
         private BroadcastReceiver usbPermissonReceiver = new BroadcastReceiver() {
             @Override
@@ -238,27 +327,6 @@ public class ArduinoDriver extends RadioDriver {
             }
         };
 
-        private UsbSerialInterface.UsbReadCallback mCheckIdCallback = new UsbSerialInterface.UsbReadCallback() {
-            @Override
-            public void onReceivedData(byte[] bytes) {
-                for (byte b : bytes) {
-                    if ((char)b == '<') {
-                        ConnectionThread.this.mIncomingId = "";
-                    } else if ((char)b == '>') {
-                        // Verify the ID
-                        if (ConnectionThread.this.mIncomingId.length() == 8 &&
-                                ConnectionThread.this.mIncomingId.startsWith("HD"))
-                        {
-                            mIdValid.set(true);
-                            ConnectionThread.this.resumeThread();
-                        }
-                    } else {
-                        ConnectionThread.this.mIncomingId += (char)b;
-                    }
-                }
-            }
-        };
-
         ConnectionThread(String requestedId) {
             this.mRequestedId = requestedId;
         }
@@ -269,97 +337,61 @@ public class ArduinoDriver extends RadioDriver {
             }
         }
 
-        private UsbSerialDevice getSerialDevice(UsbDevice device) {
-            if (!this.mUsbManager.hasPermission(device)) {
-
-                this.mUsbPermissonGranted.set(false);
-                // request permission and wait
-                PendingIntent pi = PendingIntent.getBroadcast(ArduinoDriver.this.mContext,
-                        0, new Intent(ACTION_USB_PERMISSION), 0);
-                this.mUsbManager.requestPermission(device, pi);
-
-                synchronized (this) {
-                    try {
-                        this.mIsWaiting.set(true);
-                        wait();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
+        private boolean requestDevicePermission(UsbDevice device) {
+            if (this.mUsbManager.hasPermission(device)) {
+                return true;
+            }
 
-                if (!this.mUsbPermissonGranted.get()) {
-                    Timber.e("Usb Permission not granted to device: %s", device.getDeviceName());
-                    // Dispatch On Opened Callback
+            this.mUsbPermissonGranted.set(false);
+            // request permission and wait
+            PendingIntent pi = PendingIntent.getBroadcast(ArduinoDriver.this.mContext,
+                    0, new Intent(ACTION_USB_PERMISSION), 0);
+            this.mUsbManager.requestPermission(device, pi);
 
-                    return null;
+            synchronized (this) {
+                try {
+                    this.mIsWaiting.set(true);
+                    wait();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
                 }
             }
 
-            UsbDeviceConnection deviceConnection = mUsbManager.openDevice(device);
-            if (deviceConnection == null) {
-                Timber.i("Unable to open Usb device");
+            if (!this.mUsbPermissonGranted.get()) {
+                Timber.e("Usb Permission not granted to device: %s", device.getDeviceName());
+                return false;
             }
-            // Open Serial device with DTR/RTS high
-            UsbSerialDevice serialDevice = UsbSerialDevice
-                    .createUsbSerialDevice(device, deviceConnection);
 
+            return true;
+        }
 
+        /**
+         * Called by each DeviceProbe when it has finished, successfully or not.  The first probe
+         * with a matching ID claims the connection, any other open port is closed here.
+         *
+         * @return  true if the calling probe won the connection
+         */
+        private synchronized boolean onProbeComplete(DeviceProbe probe, UsbSerialDevice serialDevice,
+                                                     String sketchId) {
+            boolean claimed = false;
             if (serialDevice != null) {
-                if (serialDevice.open()) {
-                    // Open success
-                    serialDevice.setBaudRate(115200);
-                    serialDevice.setDataBits(UsbSerialInterface.DATA_BITS_8);
-                    serialDevice.setStopBits(UsbSerialInterface.STOP_BITS_1);
-                    serialDevice.setParity(UsbSerialInterface.PARITY_NONE);
-                    serialDevice.setFlowControl(UsbSerialInterface.FLOW_CONTROL_OFF);
-                    serialDevice.read(ConnectionThread.this.mCheckIdCallback);
-
-                    // Some micro controllers need time to initialize before you can communicate.
-                    // CH34x is one such device, others need to be tested.
-                    long sleeptime = 200;
-                    if (CH34xIds.isDeviceSupported(device.getVendorId(), device.getProductId())) {
-                        sleeptime = 2000;
-                    }
-                    try {
-                        Thread.sleep(sleeptime);
-                    } catch (InterruptedException e) {
-                        Timber.w(e);
-                    }
-
-                    // Write init string to device
-                    byte[] idReqPacket = {(byte)0xA4, (byte)0xFF, (byte)0x10, (byte)0x00 };
-                    serialDevice.write(idReqPacket);
-
-                    synchronized (this) {
-                        try {
-                            this.mIsWaiting.set(true);
-                            wait(1000);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
-
-                    if (!this.mIdValid.get()) {
-                        Timber.w("No Valid Id returned from Arduino/MCU");
-                        serialDevice.close();
-                        return null;
-                    }
-
-                    return serialDevice;
-
+                if (this.mWinningProbe == null && sketchId != null &&
+                        (this.mRequestedId == null || sketchId.equals(this.mRequestedId))) {
+                    this.mWinningProbe = probe;
+                    claimed = true;
                 } else {
-                    Timber.w("Usb Device not a supported serial device");
-                    return null;
+                    serialDevice.close();
                 }
-            } else {
-                Timber.w("Usb Device not a supported serial device");
-                return null;
+            }
 
+            this.mRemainingProbes--;
+            if (claimed || this.mRemainingProbes == 0) {
+                this.mProbeLatch.countDown();
             }
 
+            return claimed;
         }
 
-
         @Override
         public void run() {
             synchronized (OPEN_LOCK) {
@@ -381,61 +413,88 @@ public class ArduinoDriver extends RadioDriver {
                     return;
                 }
 
+                // Permission requests show a dialog, so they must be made one device at a time
+                // before probing starts
                 IntentFilter filter = new IntentFilter(ACTION_USB_PERMISSION);
                 ArduinoDriver.this.mContext.registerReceiver(usbPermissonReceiver, filter);
-                UsbDevice requestedDevice = null;
-
+                ArrayList<UsbDevice> permittedList = new ArrayList<>(hdDeviceList.size());
+                for (UsbDevice uDev : hdDeviceList) {
+                    if (this.requestDevicePermission(uDev)) {
+                        permittedList.add(uDev);
+                    }
+                }
+                ArduinoDriver.this.mContext.unregisterReceiver(usbPermissonReceiver);
 
-                if (this.mRequestedId == null) {
-                    // find the first mjs cable since a null value was passed
-                    requestedDevice = hdDeviceList.get(0);
-                    ArduinoDriver.this.mSerialPort = this.getSerialDevice(requestedDevice);
+                // Launch a probe for every permitted device, then wait for a winner or for all
+                // of them to give up
+                ArrayList<Thread> probeThreads = new ArrayList<>(permittedList.size());
+                synchronized (this) {
+                    this.mProbeLatch = new CountDownLatch(1);
+                    this.mRemainingProbes = permittedList.size();
+                    this.mWinningProbe = null;
+                }
+                for (UsbDevice uDev : permittedList) {
+                    DeviceProbe probe = new DeviceProbe(this, uDev, ArduinoDriver.this.mContext,
+                            ArduinoDriver.this.mUseReadinessProbe);
+                    Thread probeThread = new Thread(probe,
+                            "ArduinoProbe-" + uDev.getDeviceName());
+                    probeThreads.add(probeThread);
+                    probeThread.start();
+                }
 
-                } else {
-                    // iterate through device list searching for serial number
-                    int count = 0;
-                    for (UsbDevice uDev : hdDeviceList) {
-                        ArduinoDriver.this.mSerialPort = this.getSerialDevice(uDev);
-                        if (ArduinoDriver.this.mSerialPort != null) {
-
-                            // The serial port has a valid ID, compare with requested ID
-                            if (this.mIncomingId.equals(this.mRequestedId)) {
-                                requestedDevice = uDev;
-                                break;
-                            } else {
-                                ArduinoDriver.this.mSerialPort.close();
-                            }
+                if (!permittedList.isEmpty()) {
+                    try {
+                        if (!this.mProbeLatch.await(PROBE_TOTAL_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                            Timber.w("Timed out waiting for device probes");
                         }
-                        ArduinoDriver.this.mSerialPort = null;
-                        count++;
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
                     }
+                }
 
-                    if (count == hdDeviceList.size() && ArduinoDriver.this.mSerialPort == null) {
-                        Timber.i("Unable to find MCU matching requested ID: %s",
-                                this.mRequestedId);
+                DeviceProbe winner;
+                synchronized (this) {
+                    winner = this.mWinningProbe;
+                    // Make sure a probe finishing late cannot claim the connection
+                    if (winner == null) {
+                        this.mWinningProbe = DeviceProbe.NONE;
                     }
                 }
 
-                ArduinoDriver.this.mContext.unregisterReceiver(usbPermissonReceiver);
+                // Cancel the probes that are still running.  They close their own ports.
+                for (Thread probeThread : probeThreads) {
+                    probeThread.interrupt();
+                }
 
                 // Didn't get a valid device connection
-                if (ArduinoDriver.this.mSerialPort == null) {
+                if (winner == null) {
+                    if (this.mRequestedId != null) {
+                        Timber.i("Unable to find MCU matching requested ID: %s",
+                                this.mRequestedId);
+                    }
                     Timber.i("Unable to open Usb serial port");
                     ArduinoDriver.this.mDriverEvents.onOpened(false);
                     return;
                 }
 
-                // sleep for 100ms
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                ArduinoDriver.this.mSerialPort = winner.getSerialDevice();
+
+                // When probing for readiness the device has already proven it can communicate.
+                // Stray ID replies to earlier probe frames contain no header and are discarded
+                // by the data handler.
+                if (!ArduinoDriver.this.mUseReadinessProbe) {
+                    // sleep for 100ms
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
                 }
 
                 // Set Read callback to standard parsing
                 ArduinoDriver.this.mSerialPort.read(ArduinoDriver.this.mReadCallback);
-                ArduinoDriver.this.mUsbDevice = requestedDevice;
-                ArduinoDriver.this.mSketchId = this.mIncomingId;
+                ArduinoDriver.this.mUsbDevice = winner.getDevice();
+                ArduinoDriver.this.mSketchId = winner.getSketchId();
                 ArduinoDriver.this.raiseRts();
 
                 // Register the Broadcast receiver to listen for Radio Disconnections
@@ -456,4 +515,157 @@ public class ArduinoDriver extends RadioDriver {
         }
     }
 
+    /**
+     * Opens a single USB serial device and requests its sketch ID.  A probe gives up when the
+     * device doesn't answer in time, or when it is interrupted because another device has already
+     * won the connection.
+     *
+     * In readiness probe mode the ID request itself is the probe frame, so it is repeated until
+     * the sketch answers instead of being sent once after a fixed startup sleep.
+     */
+    private static class DeviceProbe implements Runnable {
+
+        // Placeholder winner, used to lock out probes that finish after the connection thread quit
+        static final DeviceProbe NONE = new DeviceProbe(null, null, null, false);
+
+        private final ConnectionThread mOwner;
+        private final UsbDevice mDevice;
+        private final Context mContext;
+        private final boolean mUseReadinessProbe;
+        private volatile ReadinessProbe mReadinessProbe = null;
+        private final CountDownLatch mIdLatch = new CountDownLatch(1);
+        private final StringBuilder mIncomingId = new StringBuilder(8);
+        private volatile String mSketchId = null;
+        private volatile UsbSerialDevice mSerialDevice = null;
+
+        private UsbSerialInterface.UsbReadCallback mCheckIdCallback = new UsbSerialInterface.UsbReadCallback() {
+            @Override
+            public void onReceivedData(byte[] bytes) {
+                for (byte b : bytes) {
+                    if ((char)b == '<') {
+                        DeviceProbe.this.mIncomingId.setLength(0);
+                    } else if ((char)b == '>') {
+                        // Verify the ID
+                        String id = DeviceProbe.this.mIncomingId.toString();
+                        if (id.length() == 8 && id.startsWith("HD")) {
+                            DeviceProbe.this.mSketchId = id;
+                            DeviceProbe.this.mIdLatch.countDown();
+
+                            ReadinessProbe readinessProbe = DeviceProbe.this.mReadinessProbe;
+                            if (readinessProbe != null) {
+                                readinessProbe.markReady();
+                            }
+                        }
+                    } else {
+                        DeviceProbe.this.mIncomingId.append((char)b);
+                    }
+                }
+            }
+        };
+
+        DeviceProbe(ConnectionThread owner, UsbDevice device, Context context,
+                    boolean useReadinessProbe) {
+            this.mOwner = owner;
+            this.mDevice = device;
+            this.mContext = context;
+            this.mUseReadinessProbe = useReadinessProbe;
+        }
+
+        UsbDevice getDevice() {
+            return this.mDevice;
+        }
+
+        UsbSerialDevice getSerialDevice() {
+            return this.mSerialDevice;
+        }
+
+        String getSketchId() {
+            return this.mSketchId;
+        }
+
+        @Override
+        public void run() {
+            UsbSerialDevice serialDevice = this.openSerialDevice();
+            String sketchId = null;
+            if (serialDevice != null) {
+                sketchId = this.requestSketchId(serialDevice);
+                if (sketchId == null) {
+                    Timber.w("No Valid Id returned from Arduino/MCU: %s", this.mDevice.getDeviceName());
+                }
+            }
+
+            this.mSerialDevice = serialDevice;
+            this.mOwner.onProbeComplete(this, serialDevice, sketchId);
+        }
+
+        private UsbSerialDevice openSerialDevice() {
+            UsbDeviceConnection deviceConnection = this.mOwner.mUsbManager.openDevice(this.mDevice);
+            if (deviceConnection == null) {
+                Timber.i("Unable to open Usb device");
+                return null;
+            }
+            // Open Serial device with DTR/RTS high
+            UsbSerialDevice serialDevice = UsbSerialDevice
+                    .createUsbSerialDevice(this.mDevice, deviceConnection);
+
+            if (serialDevice == null || !serialDevice.open()) {
+                Timber.w("Usb Device not a supported serial device");
+                return null;
+            }
+
+            // Open success
+            serialDevice.setBaudRate(115200);
+            serialDevice.setDataBits(UsbSerialInterface.DATA_BITS_8);
+            serialDevice.setStopBits(UsbSerialInterface.STOP_BITS_1);
+            serialDevice.setParity(UsbSerialInterface.PARITY_NONE);
+            serialDevice.setFlowControl(UsbSerialInterface.FLOW_CONTROL_OFF);
+            serialDevice.read(this.mCheckIdCallback);
+            return serialDevice;
+        }
+
+        /**
+         * Writes the ID request to the device and waits for a reply.  Returns null if the device
+         * timed out or the probe was cancelled.
+         */
+        private String requestSketchId(final UsbSerialDevice serialDevice) {
+            // Some micro controllers need time to initialize before you can communicate.
+            // CH34x is one such device, others need to be tested.
+            boolean isCh34x = CH34xIds.isDeviceSupported(this.mDevice.getVendorId(),
+                    this.mDevice.getProductId());
+            final byte[] idReqPacket = {(byte)0xA4, (byte)0xFF, (byte)0x10, (byte)0x00 };
+
+            try {
+                if (this.mUseReadinessProbe) {
+                    ReadinessProbe readinessProbe = new ReadinessProbe(this.mContext, this.mDevice,
+                            isCh34x ? CH34X_READY_TIMEOUT : READY_TIMEOUT);
+                    this.mReadinessProbe = readinessProbe;
+                    if (this.mIdLatch.getCount() == 0) {
+                        readinessProbe.markReady();
+                    }
+
+                    boolean ready = readinessProbe.awaitReady(new ReadinessProbe.ProbeFrame() {
+                        @Override
+                        public void send() {
+                            serialDevice.write(idReqPacket);
+                        }
+                    });
+                    return ready ? this.mSketchId : null;
+                }
+
+                Thread.sleep(isCh34x ? 2000 : 200);
+
+                // Write init string to device
+                serialDevice.write(idReqPacket);
+
+                if (this.mIdLatch.await(PROBE_ID_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    return this.mSketchId;
+                }
+            } catch (InterruptedException e) {
+                Timber.v("Probe cancelled: %s", this.mDevice.getDeviceName());
+            }
+
+            return null;
+        }
+    }
+
 }
@@ -0,0 +1,57 @@
+package com.arksine.hdradiolib.drivers;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small, thread safe pool of equally sized heap buffers.  Buffers may be acquired on one thread
+ * and released on another.  Buffers of a different capacity are not accepted back into the pool,
+ * so it is safe to release any buffer the caller owns.
+ */
+
+public class BufferPool {
+
+    private final int mBufferSize;
+    private final int mMaxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> mFreeBuffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mFreeCount = new AtomicInteger(0);
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.mBufferSize = bufferSize;
+        this.mMaxPooled = maxPooled;
+    }
+
+    public int getBufferSize() {
+        return this.mBufferSize;
+    }
+
+    /**
+     * @return  A cleared buffer with a capacity of getBufferSize() bytes
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = this.mFreeBuffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocate(this.mBufferSize);
+        }
+
+        this.mFreeCount.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool.  The caller must not use the buffer afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != this.mBufferSize || buffer.isReadOnly()) {
+            return;
+        }
+
+        if (this.mFreeCount.incrementAndGet() <= this.mMaxPooled) {
+            this.mFreeBuffers.offer(buffer);
+        } else {
+            this.mFreeCount.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.arksine.hdradiolib.drivers;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Push style receiver for bytes read from the radio device.  Drivers either wrap the arrays
+ * handed to them by their serial library, or fill a buffer lent from the sink's pool.
+ */
+
+public interface ByteSink {
+
+    /**
+     * Lends a pooled buffer that a driver may read into before passing it to onBytes.
+     *
+     * @param capacity  minimum capacity required
+     * @return          a cleared buffer of at least the requested capacity
+     */
+    ByteBuffer obtainBuffer(int capacity);
+
+    /**
+     * Receives bytes from the device, between the buffer's position and limit.  Ownership of the
+     * buffer passes to the sink, the driver must not modify it afterwards.  Pooled buffers are
+     * returned to the pool once the sink has consumed them.
+     *
+     * @param data  buffer containing the received bytes
+     */
+    void onBytes(ByteBuffer data);
+}
@@ -0,0 +1,94 @@
+package com.arksine.hdradiolib.drivers;
+
+import java.util.ArrayList;
+
+/**
+ * A timed sequence of RTS/DTR states, for example "mute, power off, unmute" with a gap between
+ * each step.  Every step sets both lines, then waits before the next step is applied.  Drivers
+ * that support it run the whole sequence on the device rather than on the host.
+ *
+ * Example (the power off sequence used by HDRadio):
+ *
+ * new ControlSequence()
+ *         .setLines(true, true).delay(50)     // raise RTS (mute), DTR stays high
+ *         .setLines(true, false).delay(50)    // clear DTR (power off)
+ *         .setLines(false, false);            // clear RTS (unmute)
+ */
+
+public class ControlSequence {
+
+    public static final int LINE_RTS = 0x01;
+    public static final int LINE_DTR = 0x02;
+
+    // Keeps the encoded sequence small enough to fit in an Arduino's 64 byte serial buffer
+    public static final int MAX_STEPS = 16;
+    public static final int MAX_DELAY = 0xFFFF;
+
+    private final ArrayList<int[]> mSteps = new ArrayList<>(4);
+
+    public ControlSequence() {}
+
+    /**
+     * Appends a step setting the RTS and DTR lines
+     *
+     * @param rts   true to raise RTS, false to clear it
+     * @param dtr   true to raise DTR, false to clear it
+     * @return      this sequence
+     */
+    public ControlSequence setLines(boolean rts, boolean dtr) {
+        if (this.mSteps.size() >= MAX_STEPS) {
+            throw new IllegalStateException("Control sequence is limited to " + MAX_STEPS + " steps");
+        }
+
+        int mask = (rts ? LINE_RTS : 0) | (dtr ? LINE_DTR : 0);
+        this.mSteps.add(new int[]{mask, 0});
+        return this;
+    }
+
+    /**
+     * Adds a delay after the most recently added step
+     *
+     * @param delayMs   time to wait in milliseconds
+     * @return          this sequence
+     */
+    public ControlSequence delay(int delayMs) {
+        if (this.mSteps.isEmpty()) {
+            throw new IllegalStateException("A delay must follow a line state");
+        }
+
+        int[] step = this.mSteps.get(this.mSteps.size() - 1);
+        step[1] = Math.min(step[1] + Math.max(delayMs, 0), MAX_DELAY);
+        return this;
+    }
+
+    public int getStepCount() {
+        return this.mSteps.size();
+    }
+
+    public int getLineMask(int step) {
+        return this.mSteps.get(step)[0];
+    }
+
+    public boolean isRtsSet(int step) {
+        return (this.getLineMask(step) & LINE_RTS) != 0;
+    }
+
+    public boolean isDtrSet(int step) {
+        return (this.getLineMask(step) & LINE_DTR) != 0;
+    }
+
+    public int getDelay(int step) {
+        return this.mSteps.get(step)[1];
+    }
+
+    /**
+     * @return  The sum of all step delays in milliseconds
+     */
+    public int getTotalDelay() {
+        int total = 0;
+        for (int[] step : this.mSteps) {
+            total += step[1];
+        }
+        return total;
+    }
+}
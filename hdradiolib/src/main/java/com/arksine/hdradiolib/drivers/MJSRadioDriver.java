@@ -29,6 +29,9 @@ import timber.log.Timber;
 public class MJSRadioDriver extends RadioDriver {
     private static final String ACTION_USB_PERMISSION = "com.arksine.hdradiolib.USB_PERMISSION";
     private static final String ACTION_USB_DETACHED = "android.hardware.usb.action.USB_DEVICE_DETACHED";
+    // Fixed, as there is nothing to probe at open: the only device behind the bridge is the
+    // radio, which is powered off until DTR is raised and doesn't answer until then
+    private static final long CH34X_STARTUP_DELAY = 2000;
     private final Object OPEN_LOCK = new Object();
 
     private Context mContext;
@@ -343,7 +346,7 @@ public class MJSRadioDriver extends RadioDriver {
                         // CH34x is one such device, others need to be tested.
                         if (CH34xIds.isDeviceSupported(mUsbDevice.getVendorId(), mUsbDevice.getProductId())) {
                             try {
-                                Thread.sleep(2000);
+                                Thread.sleep(CH34X_STARTUP_DELAY);
                             } catch (InterruptedException e) {
                                 Timber.w(e);
                             }
@@ -1,14 +1,20 @@
 package com.arksine.hdradiolib.drivers;
 
-import android.os.Message;
-
 import com.arksine.hdradiolib.RadioDataHandler;
 import com.arksine.hdradiolib.enums.RadioError;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
+import timber.log.Timber;
+
 /**
  * Created by eric on 1/27/17.
+ *
+ * Drivers exchange data with the radio through ByteBuffers: outgoing packets are passed to
+ * write(ByteBuffer), and incoming bytes are pushed to a ByteSink.  Drivers written against the
+ * original byte array contract only need to implement writeData and call handleIncomingBytes,
+ * the default implementations below adapt them to the buffer based path without copying.
  */
 
 public abstract class RadioDriver {
@@ -21,15 +27,19 @@ public abstract class RadioDriver {
 
 
     protected RadioDataHandler mDataHandler;
+    protected ByteSink mByteSink;
     protected DriverEvents mDriverEvents;
+    protected volatile boolean mUseReadinessProbe = true;
 
     public RadioDriver() {
         this.mDataHandler = null;
+        this.mByteSink = null;
         this.mDriverEvents = null;
     }
 
     public void initialize (RadioDataHandler dataHandler, DriverEvents events) {
         this.mDataHandler = dataHandler;
+        this.mByteSink = dataHandler;
         this.mDriverEvents = events;
     }
 
@@ -37,12 +47,143 @@ public abstract class RadioDriver {
         return (this.mDataHandler != null && this.mDriverEvents != null);
     }
 
+    /**
+     * Selects how a driver waits for a freshly opened device to become ready.  When enabled
+     * (the default) the device is polled with a probe frame until it responds, otherwise the
+     * driver sleeps for a fixed time.  Drivers that don't need to wait, or have nothing that can
+     * answer a probe before the radio is powered (MJSRadioDriver), ignore this setting.
+     *
+     * @param enabled   true to use the readiness probe, false to use fixed delays
+     */
+    public void setReadinessProbeEnabled(boolean enabled) {
+        this.mUseReadinessProbe = enabled;
+    }
+
+    /**
+     * Passes an array received from the device to the sink.  The array is wrapped, not copied,
+     * so the caller must not reuse it.
+     */
     protected void handleIncomingBytes(byte[] data) {
-        Message msg = this.mDataHandler.obtainMessage();
-        msg.obj = data;
-        this.mDataHandler.sendMessage(msg);
+        this.mByteSink.onBytes(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Passes a buffer received from the device to the sink, transferring ownership.
+     */
+    protected void handleIncomingBytes(ByteBuffer data) {
+        this.mByteSink.onBytes(data);
+    }
+
+    /**
+     * Borrows a pooled buffer from the sink that the driver can read into, then pass to
+     * handleIncomingBytes(ByteBuffer).
+     */
+    protected ByteBuffer obtainBuffer(int capacity) {
+        return this.mByteSink.obtainBuffer(capacity);
     }
 
+    /**
+     * Writes the bytes between the buffer's position and limit to the device.  The default
+     * implementation passes the backing array straight to writeData when the buffer spans all of
+     * it, and only copies for partial or direct buffers.  Drivers whose serial library accepts
+     * buffers directly should override this.
+     *
+     * @param data  buffer to write, its position is advanced to its limit
+     */
+    public void write(ByteBuffer data) {
+        byte[] bytes;
+        if (data.hasArray() && data.arrayOffset() == 0 && data.position() == 0 &&
+                data.remaining() == data.array().length) {
+            bytes = data.array();
+        } else {
+            bytes = new byte[data.remaining()];
+            data.get(bytes, 0, bytes.length);
+        }
+        data.position(data.limit());
+        this.writeData(bytes);
+    }
+
+
+    /**
+     * Sets the RTS and DTR lines together.  The default implementation raises or clears each
+     * line in turn, drivers able to change both at once should override it.  RTS (mute) is
+     * raised before DTR changes and cleared after it, so the radio is muted while its power
+     * line switches.
+     *
+     * @param rts   true to raise RTS, false to clear it
+     * @param dtr   true to raise DTR, false to clear it
+     */
+    public void setControlLines(boolean rts, boolean dtr) {
+        if (rts) {
+            this.raiseRts();
+        }
+
+        if (dtr) {
+            this.raiseDtr();
+        } else {
+            this.clearDtr();
+        }
+
+        if (!rts) {
+            this.clearRts();
+        }
+    }
+
+    /**
+     * Runs a timed sequence of control line states.  The default implementation applies each
+     * step from the calling thread and sleeps between them, writing only the lines a step
+     * changes.  Drivers that can execute the sequence on the device should override it.  Either
+     * way the call returns once the sequence has completed.
+     *
+     * @param sequence  the sequence to run
+     */
+    public void runControlSequence(ControlSequence sequence) {
+        int previous = 0;
+        for (int i = 0; i < sequence.getStepCount(); i++) {
+            int mask = sequence.getLineMask(i);
+            if (i == 0) {
+                // The state of the lines before the sequence is unknown, so both are written
+                this.setControlLines(sequence.isRtsSet(i), sequence.isDtrSet(i));
+            } else {
+                this.writeChangedLines(previous ^ mask, mask);
+            }
+            previous = mask;
+
+            int delay = sequence.getDelay(i);
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Timber.w(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the lines set in changed to their state in mask, in the same order as
+     * setControlLines()
+     */
+    private void writeChangedLines(int changed, int mask) {
+        boolean rtsChanged = (changed & ControlSequence.LINE_RTS) != 0;
+        boolean rts = (mask & ControlSequence.LINE_RTS) != 0;
+
+        if (rtsChanged && rts) {
+            this.raiseRts();
+        }
+
+        if ((changed & ControlSequence.LINE_DTR) != 0) {
+            if ((mask & ControlSequence.LINE_DTR) != 0) {
+                this.raiseDtr();
+            } else {
+                this.clearDtr();
+            }
+        }
+
+        if (rtsChanged && !rts) {
+            this.clearRts();
+        }
+    }
 
     public abstract <T> ArrayList<T> getDeviceList(Class<T> listType);
     public abstract String getIdentifier();
@@ -0,0 +1,108 @@
+package com.arksine.hdradiolib.drivers;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.hardware.usb.UsbDevice;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.arksine.hdradiolib.R;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Detects when a freshly opened USB serial device is ready to communicate.  Rather than sleeping
+ * for a fixed time, a cheap probe frame is written at short intervals until the device responds
+ * or a hard timeout expires.
+ *
+ * The observed latency is stored per device type (VID/PID).  On later opens probing starts
+ * shortly before the device has historically become ready, so the bus isn't flooded with frames
+ * a device can't answer yet.
+ */
+
+class ReadinessProbe {
+
+    private static final long POLL_INTERVAL = 50;
+    private static final String PREF_KEY_PREFIX = "radiolib_pref_key_ready_latency_";
+
+    /**
+     * Writes a single probe frame to the device
+     */
+    interface ProbeFrame {
+        void send();
+    }
+
+    private final SharedPreferences mPreferences;
+    private final String mLatencyKey;
+    private final long mHardTimeout;
+    private final CountDownLatch mReadyLatch = new CountDownLatch(1);
+
+    ReadinessProbe(@NonNull Context context, @NonNull UsbDevice device, long hardTimeout) {
+        this.mPreferences = context.getSharedPreferences(
+                context.getString(R.string.pref_file_key), Context.MODE_PRIVATE);
+        this.mLatencyKey = PREF_KEY_PREFIX + String.format(Locale.US, "%04x_%04x",
+                device.getVendorId(), device.getProductId());
+        this.mHardTimeout = hardTimeout;
+    }
+
+    /**
+     * @return  The smoothed readiness latency previously observed for this device type, or -1
+     *          if the device has never been probed
+     */
+    long getLearnedLatency() {
+        return this.mPreferences.getLong(this.mLatencyKey, -1);
+    }
+
+    /**
+     * Called from the device's read callback when a valid response to the probe frame arrives
+     */
+    void markReady() {
+        this.mReadyLatch.countDown();
+    }
+
+    /**
+     * Sends probe frames until the device is ready or the hard timeout expires.
+     *
+     * @param frame     writes the probe frame to the device
+     * @return          true if the device responded, false if the timeout expired
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    boolean awaitReady(@NonNull ProbeFrame frame) throws InterruptedException {
+        long startTime = SystemClock.elapsedRealtime();
+
+        // Don't probe before the device has historically been able to answer
+        long learned = this.getLearnedLatency();
+        if (learned > 0) {
+            long initialDelay = Math.min((learned * 3) / 4, this.mHardTimeout);
+            if (this.mReadyLatch.await(initialDelay, TimeUnit.MILLISECONDS)) {
+                this.recordLatency(SystemClock.elapsedRealtime() - startTime);
+                return true;
+            }
+        }
+
+        long elapsed = SystemClock.elapsedRealtime() - startTime;
+        while (elapsed < this.mHardTimeout) {
+            frame.send();
+            long wait = Math.min(POLL_INTERVAL, this.mHardTimeout - elapsed);
+            if (this.mReadyLatch.await(wait, TimeUnit.MILLISECONDS)) {
+                this.recordLatency(SystemClock.elapsedRealtime() - startTime);
+                return true;
+            }
+            elapsed = SystemClock.elapsedRealtime() - startTime;
+        }
+
+        Timber.d("Device did not respond within %d ms", this.mHardTimeout);
+        return false;
+    }
+
+    private void recordLatency(long observed) {
+        long learned = this.getLearnedLatency();
+        long smoothed = (learned < 0) ? observed : (learned * 3 + observed) / 4;
+        Timber.d("Device ready after %d ms, learned latency %d ms", observed, smoothed);
+        this.mPreferences.edit().putLong(this.mLatencyKey, smoothed).apply();
+    }
+}
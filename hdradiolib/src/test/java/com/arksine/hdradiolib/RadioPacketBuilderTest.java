@@ -0,0 +1,97 @@
+package com.arksine.hdradiolib;
+
+import com.arksine.hdradiolib.enums.RadioBand;
+import com.arksine.hdradiolib.enums.RadioCommand;
+import com.arksine.hdradiolib.enums.RadioConstant;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the typed encoders against frames captured from the previous Object based builder,
+ * which the radio is known to accept.
+ */
+public class RadioPacketBuilderTest {
+
+    @Test
+    public void encodeTune_matchesPreviousBuilder() throws Exception {
+        assertArrayEquals(new byte[] {
+                (byte) 0xA4, (byte) 0x10, (byte) 0x02, (byte) 0x01, (byte) 0x00, (byte) 0x00,
+                (byte) 0x01, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0xF3, (byte) 0x03,
+                (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+                (byte) 0xAE
+        }, RadioPacketBuilder.encodeTune(new TuneInfo(RadioBand.FM, 1011, 0)));
+
+        assertArrayEquals(new byte[] {
+                (byte) 0xA4, (byte) 0x10, (byte) 0x02, (byte) 0x01, (byte) 0x00, (byte) 0x00,
+                (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0xAE, (byte) 0x06,
+                (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+                (byte) 0x6B
+        }, RadioPacketBuilder.encodeTune(new TuneInfo(RadioBand.AM, 1710, 0)));
+    }
+
+    @Test
+    public void encodeTune_escapesHeaderAndEscapeBytes() throws Exception {
+        // 932 is 0x03A4
+        assertArrayEquals(new byte[] {
+                (byte) 0xA4, (byte) 0x10, (byte) 0x02, (byte) 0x01, (byte) 0x00, (byte) 0x00,
+                (byte) 0x01, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x1B, (byte) 0x48,
+                (byte) 0x03, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+                (byte) 0x00, (byte) 0x5F
+        }, RadioPacketBuilder.encodeTune(new TuneInfo(RadioBand.FM, 932, 0)));
+
+        // 1051 is 0x041B
+        assertArrayEquals(new byte[] {
+                (byte) 0xA4, (byte) 0x10, (byte) 0x02, (byte) 0x01, (byte) 0x00, (byte) 0x00,
+                (byte) 0x01, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x1B, (byte) 0x1B,
+                (byte) 0x04, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+                (byte) 0x00, (byte) 0xD7
+        }, RadioPacketBuilder.encodeTune(new TuneInfo(RadioBand.FM, 1051, 0)));
+    }
+
+    @Test
+    public void encodeSeek_matchesPreviousBuilder() throws Exception {
+        assertArrayEquals(new byte[] {
+                (byte) 0xA4, (byte) 0x14, (byte) 0x03, (byte) 0x01, (byte) 0x00, (byte) 0x00,
+                (byte) 0x01, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+                (byte) 0x00, (byte) 0x00, (byte) 0x01, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+                (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0xBE
+        }, RadioPacketBuilder.encodeSeek(new SeekData(RadioConstant.UP, RadioBand.FM, true)));
+
+        assertArrayEquals(new byte[] {
+                (byte) 0xA4, (byte) 0x14, (byte) 0x03, (byte) 0x01, (byte) 0x00, (byte) 0x00,
+                (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+                (byte) 0x00, (byte) 0x00, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0x01, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0xB9
+        }, RadioPacketBuilder.encodeSeek(new SeekData(RadioConstant.DOWN, RadioBand.AM, false)));
+    }
+
+    @Test
+    public void encodeRfModulator_matchesPreviousBuilder() throws Exception {
+        assertArrayEquals(new byte[] {
+                (byte) 0xA4, (byte) 0x0C, (byte) 0x01, (byte) 0x05, (byte) 0x00, (byte) 0x00,
+                (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+                (byte) 0x00, (byte) 0x00, (byte) 0xB6
+        }, RadioPacketBuilder.encodeInt(RadioCommand.RF_MODULATOR, 0));
+
+        assertArrayEquals(new byte[] {
+                (byte) 0xA4, (byte) 0x0C, (byte) 0x01, (byte) 0x05, (byte) 0x00, (byte) 0x00,
+                (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x71, (byte) 0x03,
+                (byte) 0x00, (byte) 0x00, (byte) 0x2A
+        }, RadioPacketBuilder.encodeInt(RadioCommand.RF_MODULATOR, 881));
+    }
+
+    @Test
+    public void encodeGet_matchesPreviousBuilder() throws Exception {
+        assertArrayEquals(new byte[] {
+                (byte) 0xA4, (byte) 0x04, (byte) 0x02, (byte) 0x01, (byte) 0x01, (byte) 0x00,
+                (byte) 0xAC
+        }, RadioPacketBuilder.encodeGet(RadioCommand.TUNE));
+
+        assertArrayEquals(new byte[] {
+                (byte) 0xA4, (byte) 0x04, (byte) 0x01, (byte) 0x05, (byte) 0x01, (byte) 0x00,
+                (byte) 0xAF
+        }, RadioPacketBuilder.encodeGet(RadioCommand.RF_MODULATOR));
+    }
+}
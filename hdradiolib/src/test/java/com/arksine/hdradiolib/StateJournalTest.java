@@ -0,0 +1,133 @@
+package com.arksine.hdradiolib;
+
+import android.os.Looper;
+import android.util.SparseIntArray;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replay and append of a journal with a damaged tail.  Writes are posted to the main looper,
+ * which Robolectric runs immediately.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class StateJournalTest {
+
+    private static final int RECORD_SIZE = 6;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = new File(mFolder.getRoot(), "state.journal");
+    }
+
+    private static void encode(byte[] data, int offset, int key, int value) {
+        data[offset] = (byte) key;
+        data[offset + 1] = (byte) (value >> 24);
+        data[offset + 2] = (byte) (value >> 16);
+        data[offset + 3] = (byte) (value >> 8);
+        data[offset + 4] = (byte) value;
+        int sum = 0;
+        for (int i = 0; i < RECORD_SIZE - 1; i++) {
+            sum += data[offset + i] & 0xFF;
+        }
+        data[offset + 5] = (byte) ~sum;
+    }
+
+    private void writeFile(byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private StateJournal newJournal() {
+        return new StateJournal(mFile, Looper.getMainLooper());
+    }
+
+    @Test
+    public void tornTail_isDroppedBeforeAppend() throws Exception {
+        // Two whole records and half of a third
+        byte[] data = new byte[RECORD_SIZE * 3];
+        encode(data, 0, StateJournal.KEY_VOLUME, 40);
+        encode(data, RECORD_SIZE, StateJournal.KEY_BASS, 15);
+        encode(data, RECORD_SIZE * 2, StateJournal.KEY_TREBLE, 20);
+        byte[] torn = new byte[RECORD_SIZE * 2 + 3];
+        System.arraycopy(data, 0, torn, 0, torn.length);
+        writeFile(torn);
+
+        StateJournal journal = newJournal();
+        SparseIntArray values = journal.replay();
+        assertEquals(2, values.size());
+        assertEquals(40, values.get(StateJournal.KEY_VOLUME));
+        assertEquals(15, values.get(StateJournal.KEY_BASS));
+
+        journal.record(StateJournal.KEY_VOLUME, 55);
+        journal.flush();
+
+        assertEquals(RECORD_SIZE * 2, mFile.length());
+        values = newJournal().replay();
+        assertEquals(2, values.size());
+        assertEquals(55, values.get(StateJournal.KEY_VOLUME));
+        assertEquals(15, values.get(StateJournal.KEY_BASS));
+    }
+
+    @Test
+    public void corruptRecord_isDroppedBeforeAppend() throws Exception {
+        byte[] data = new byte[RECORD_SIZE * 3];
+        encode(data, 0, StateJournal.KEY_VOLUME, 40);
+        encode(data, RECORD_SIZE, StateJournal.KEY_BASS, 15);
+        encode(data, RECORD_SIZE * 2, StateJournal.KEY_TREBLE, 20);
+        data[RECORD_SIZE + 2] ^= 0x10;
+        writeFile(data);
+
+        StateJournal journal = newJournal();
+        SparseIntArray values = journal.replay();
+        assertEquals(1, values.size());
+        assertEquals(40, values.get(StateJournal.KEY_VOLUME));
+
+        journal.record(StateJournal.KEY_TREBLE, 30);
+        journal.flush();
+
+        values = newJournal().replay();
+        assertEquals(2, values.size());
+        assertEquals(40, values.get(StateJournal.KEY_VOLUME));
+        assertEquals(30, values.get(StateJournal.KEY_TREBLE));
+    }
+
+    @Test
+    public void intactJournal_isAppended() throws Exception {
+        byte[] data = new byte[RECORD_SIZE * 2];
+        encode(data, 0, StateJournal.KEY_VOLUME, 40);
+        encode(data, RECORD_SIZE, StateJournal.KEY_BASS, 15);
+        writeFile(data);
+
+        StateJournal journal = newJournal();
+        journal.replay();
+        journal.record(StateJournal.KEY_VOLUME, 55);
+        journal.flush();
+
+        assertEquals(RECORD_SIZE * 3, mFile.length());
+        SparseIntArray values = newJournal().replay();
+        assertEquals(55, values.get(StateJournal.KEY_VOLUME));
+        assertEquals(15, values.get(StateJournal.KEY_BASS));
+    }
+}